@@ -0,0 +1,47 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Descriptor parsing and serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DescriptorBenchmark {
+    @Param({"10", "100", "1000"})
+    int features;
+
+    private String json;
+    private FeaturesDescriptor descriptor;
+
+    @Setup
+    public void setUp() throws Exception {
+        json = Descriptors.json(features, 0);
+        descriptor = FeaturesDescriptor.read(new StringReader(json));
+    }
+
+    @Benchmark
+    public FeaturesDescriptor read() throws IOException {
+        return FeaturesDescriptor.read(new StringReader(json));
+    }
+
+    @Benchmark
+    public String write() throws IOException {
+        final StringWriter writer = new StringWriter();
+        descriptor.write(writer);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Synthetic descriptors and Karaf requirements of given size.
+ */
+final class Descriptors {
+    static final String REGION = "root";
+
+    private Descriptors() {
+    }
+
+    /**
+     * @param features number of features, every tenth of them adds a repository
+     * @param offset   index of the first feature, shifted descriptors share the rest of features
+     */
+    static String json(final int features, final int offset) {
+        final StringBuilder json = new StringBuilder("{\"featuresRequirementsVersion\": \"1.0\", \"repositories\": [");
+        for (int i = offset; i < offset + features; i += 10) {
+            json.append(i == offset ? "" : ", ").append("\"mvn:org.example/repo-").append(i / 10)
+                    .append("/1.0.0/xml/features\"");
+        }
+        json.append("], \"features\": {\"").append(REGION).append("\": [");
+        for (int i = offset; i < offset + features; i++) {
+            json.append(i == offset ? "" : ", ").append("{\"name\": \"feature-").append(i).append('"');
+            if (i % 2 == 0) {
+                json.append(", \"version\": \"[1.").append(i % 7).append(",2)\"");
+            }
+            json.append('}');
+        }
+        return json.append("]}}").toString();
+    }
+
+    /**
+     * @return Karaf requirements holding features of {@link #json(int, int)} and the same number of others
+     */
+    static Map<String, Set<String>> karafRequirements(final int size) {
+        final Set<String> requirements = new LinkedHashSet<>();
+        for (int i = 0; i < size / 2; i++) {
+            requirements.add("feature:feature-" + i + (i % 2 == 0 ? "/[1." + i % 7 + ",2)" : "/0.0.0"));
+            requirements.add("feature:other-" + i + "/[1," + (i % 5 + 2) + ")");
+        }
+        final Map<String, Set<String>> result = new LinkedHashMap<>();
+        result.put(REGION, requirements);
+        return result;
+    }
+}
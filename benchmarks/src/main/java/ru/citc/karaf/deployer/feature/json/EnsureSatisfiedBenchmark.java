@@ -0,0 +1,60 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check of descriptor requirements against Karaf requirements of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnsureSatisfiedBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    int karafRequirements;
+
+    @Param({"10", "100"})
+    int features;
+
+    private FeaturesDescriptor descriptor;
+    private Map<String, Set<String>> karafReqs;
+    private RequirementIndex index;
+
+    @Setup
+    public void setUp() throws Exception {
+        karafReqs = Descriptors.karafRequirements(Math.max(karafRequirements, features * 2));
+        index = RequirementIndex.of(karafReqs);
+        descriptor = FeaturesDescriptor.read(new StringReader(Descriptors.json(features, 0)));
+    }
+
+    /**
+     * Includes indexing of Karaf requirements, as done once per deployment.
+     */
+    @Benchmark
+    public FeaturesDescriptor ensureSatisfied() {
+        descriptor.ensureSatisfied(karafReqs);
+        return descriptor;
+    }
+
+    @Benchmark
+    public FeaturesDescriptor ensureSatisfiedIndexed() {
+        descriptor.ensureSatisfied(index);
+        return descriptor;
+    }
+
+    @Benchmark
+    public RequirementIndex index() {
+        return RequirementIndex.of(karafReqs);
+    }
+}
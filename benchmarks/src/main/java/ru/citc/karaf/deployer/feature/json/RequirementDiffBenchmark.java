@@ -0,0 +1,79 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requirement diff of a bundle update as done by deployer: Karaf requirements are parsed, change of the bundle's
+ * descriptor is computed, requirements it dropped and nobody else owns are removed, updated descriptor is added and
+ * result is compared with Karaf requirements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RequirementDiffBenchmark {
+    private static final long BUNDLE_ID = 1L;
+
+    @Param({"10", "100", "1000", "10000"})
+    int karafRequirements;
+
+    @Param({"10", "100"})
+    int features;
+
+    private Map<String, Set<String>> karafReqs;
+    private FeaturesDescriptor stored;
+    private FeaturesDescriptor actual;
+    private OwnershipIndex ownership;
+    private Set<Long> bundleIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        karafReqs = Descriptors.karafRequirements(Math.max(karafRequirements, features * 2));
+        stored = FeaturesDescriptor.read(new StringReader(Descriptors.json(features, 0)));
+        // Updated descriptor replaces tenth of features
+        actual = FeaturesDescriptor.read(new StringReader(Descriptors.json(features, Math.max(1, features / 10))));
+        // Repositories of descriptors are URIs, resolved without Karaf
+        ownership = new OwnershipIndex(new RepositoryResolver(null, 0L));
+        ownership.apply(BUNDLE_ID, DescriptorDelta.of(null, stored));
+        bundleIds = Collections.singleton(BUNDLE_ID);
+    }
+
+    @Benchmark
+    public DescriptorDelta delta() {
+        return DescriptorDelta.of(stored, actual);
+    }
+
+    @Benchmark
+    public KarafRequirements parseKaraf() {
+        return KarafRequirements.of(karafReqs);
+    }
+
+    @Benchmark
+    public boolean diff() {
+        final KarafRequirements karafFeatureReqs = KarafRequirements.of(karafReqs);
+        final KarafRequirements featureReqs = KarafRequirements.of(karafReqs);
+        DescriptorDelta.of(stored, actual).unapplyRequirements(featureReqs,
+                (region, requirement) -> ownership.isOwnedOutside(region, requirement, bundleIds));
+        featureReqs.addAll(actual.getRequirements());
+        return !featureReqs.equals(karafFeatureReqs);
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> diffToKaraf() {
+        final KarafRequirements featureReqs = KarafRequirements.of(karafReqs);
+        featureReqs.addAll(actual.getRequirements());
+        return featureReqs.toKaraf();
+    }
+}
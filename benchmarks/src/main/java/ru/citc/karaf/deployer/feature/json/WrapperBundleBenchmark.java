@@ -0,0 +1,63 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generation of wrapper bundle for descriptor file, with and without wrapper cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WrapperBundleBenchmark {
+    @Param({"10", "1000"})
+    int features;
+
+    @Param({"0", "8388608"})
+    long cacheSize;
+
+    private File source;
+    private WrapperBundleCache cache;
+    private URL url;
+    private final byte[] buffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        source = File.createTempFile("app-1.0.0", ".json");
+        Files.write(source.toPath(), Descriptors.json(features, 0).getBytes(StandardCharsets.UTF_8));
+        cache = new WrapperBundleCache(cacheSize);
+        final JsonFeatureURLHandler handler = new JsonFeatureURLHandler(cache);
+        url = new URL(JsonFeatureURLHandler.PREFIX, null, -1, source.toURI().toString(), handler);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(source.toPath());
+    }
+
+    @Benchmark
+    public void generate(final Blackhole blackhole) throws IOException {
+        try (InputStream bundle = new JsonFeatureURLHandler.Connection(url, cache).getInputStream()) {
+            int read;
+            while ((read = bundle.read(buffer)) >= 0) {
+                blackhole.consume(read);
+            }
+        }
+    }
+}
@@ -5,14 +5,17 @@ import org.apache.felix.fileinstall.ArtifactUrlTransformer;
 import org.apache.karaf.bundle.core.BundleStateService;
 import org.apache.karaf.features.FeaturesService;
 import org.apache.karaf.util.tracker.BaseActivator;
+import org.apache.karaf.util.tracker.annotation.Managed;
 import org.apache.karaf.util.tracker.annotation.RequireService;
 import org.apache.karaf.util.tracker.annotation.Services;
 import org.osgi.service.url.URLStreamHandlerService;
 
+import javax.management.NotCompliantMBeanException;
 import java.util.Dictionary;
 import java.util.Hashtable;
 
 @Services(requires = @RequireService(FeaturesService.class))
+@Managed(DeployerConfig.PID)
 public class Activator extends BaseActivator {
     private FeatureDeploymentListener featureListener;
 
@@ -20,13 +23,22 @@ public class Activator extends BaseActivator {
     protected void doStart() {
         final FeaturesService service = getTrackedService(FeaturesService.class);
         if (service != null) {
-            final URLStreamHandlerService handler = new JsonFeatureURLHandler();
+            final DeployerConfig config = readConfig();
+            final URLStreamHandlerService handler = new JsonFeatureURLHandler(
+                    new WrapperBundleCache(config.getWrapperCacheSize()));
             final Dictionary<String, Object> props = new Hashtable<>();
             props.put("url.handler.protocol", JsonFeatureURLHandler.PREFIX);
             register(URLStreamHandlerService.class, handler, props);
-            featureListener = new FeatureDeploymentListener(service, bundleContext);
+            featureListener = new FeatureDeploymentListener(service, bundleContext, config);
             register(new Class[]{ArtifactUrlTransformer.class, ArtifactListener.class, BundleStateService.class},
                     featureListener);
+            register(DeploymentHistory.class, featureListener.getHistory());
+            register(SnapshotExporter.class, featureListener::exportSnapshot);
+            try {
+                registerMBean(new DeployerMetricsMBeanImpl(featureListener.getMetrics()), "type=jsonfeaturedeployer");
+            } catch (NotCompliantMBeanException e) {
+                throw new IllegalStateException(e);
+            }
             featureListener.start();
         }
     }
@@ -38,4 +50,28 @@ public class Activator extends BaseActivator {
             featureListener = null;
         }
     }
+
+    private DeployerConfig readConfig() {
+        return new DeployerConfig()
+                .setBatchWindow(getLong(DeployerConfig.BATCH_WINDOW, DeployerConfig.DEFAULT_BATCH_WINDOW))
+                .setQueueCapacity(getInt(DeployerConfig.QUEUE_CAPACITY, DeployerConfig.DEFAULT_QUEUE_CAPACITY))
+                .setShutdownTimeout(getLong(DeployerConfig.SHUTDOWN_TIMEOUT, DeployerConfig.DEFAULT_SHUTDOWN_TIMEOUT))
+                .setDeploymentStartTimeout(getLong(DeployerConfig.DEPLOYMENT_START_TIMEOUT,
+                        DeployerConfig.DEFAULT_DEPLOYMENT_START_TIMEOUT))
+                .setDeploymentTimeout(getLong(DeployerConfig.DEPLOYMENT_TIMEOUT, DeployerConfig.DEFAULT_DEPLOYMENT_TIMEOUT))
+                .setReconcileOnStart(getBoolean(DeployerConfig.RECONCILE_ON_START,
+                        DeployerConfig.DEFAULT_RECONCILE_ON_START))
+                .setDescriptorCacheSize(getInt(DeployerConfig.DESCRIPTOR_CACHE_SIZE,
+                        DeployerConfig.DEFAULT_DESCRIPTOR_CACHE_SIZE))
+                .setWrapperCacheSize(getLong(DeployerConfig.WRAPPER_CACHE_SIZE, DeployerConfig.DEFAULT_WRAPPER_CACHE_SIZE))
+                .setRepositoryNegativeTtl(getLong(DeployerConfig.REPOSITORY_NEGATIVE_TTL,
+                        DeployerConfig.DEFAULT_REPOSITORY_NEGATIVE_TTL))
+                .setDiagHistorySize(getInt(DeployerConfig.DIAG_HISTORY_SIZE, DeployerConfig.DEFAULT_DIAG_HISTORY_SIZE))
+                .setPreflight(getBoolean(DeployerConfig.PREFLIGHT, DeployerConfig.DEFAULT_PREFLIGHT))
+                .setPrefetchThreads(getInt(DeployerConfig.PREFETCH_THREADS, DeployerConfig.DEFAULT_PREFETCH_THREADS))
+                .setWarmStartSnapshot(getString(DeployerConfig.WARM_START_SNAPSHOT,
+                        DeployerConfig.DEFAULT_WARM_START_SNAPSHOT))
+                .setValidateRequirements(getBoolean(DeployerConfig.VALIDATE_REQUIREMENTS,
+                        DeployerConfig.DEFAULT_VALIDATE_REQUIREMENTS));
+    }
 }
@@ -0,0 +1,241 @@
+package ru.citc.karaf.deployer.feature.json;
+
+/**
+ * Deployer settings, read from {@value #PID} configuration by {@link Activator}.
+ */
+final class DeployerConfig {
+    static final String PID = "ru.citc.karaf.deployer.feature.json";
+    static final String BATCH_WINDOW = "batchWindow";
+    static final String QUEUE_CAPACITY = "queueCapacity";
+    static final String SHUTDOWN_TIMEOUT = "shutdownTimeout";
+    static final String DEPLOYMENT_START_TIMEOUT = "deploymentStartTimeout";
+    static final String DEPLOYMENT_TIMEOUT = "deploymentTimeout";
+    static final String RECONCILE_ON_START = "reconcileOnStart";
+    static final String DESCRIPTOR_CACHE_SIZE = "descriptorCacheSize";
+    static final String WRAPPER_CACHE_SIZE = "wrapperCacheSize";
+    static final String REPOSITORY_NEGATIVE_TTL = "repositoryNegativeTtl";
+    static final String DIAG_HISTORY_SIZE = "diagHistorySize";
+    static final String PREFLIGHT = "preflight";
+    static final String PREFETCH_THREADS = "prefetchThreads";
+    static final String WARM_START_SNAPSHOT = "warmStartSnapshot";
+    static final String VALIDATE_REQUIREMENTS = "validateRequirements";
+
+    static final long DEFAULT_BATCH_WINDOW = 0L;
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    static final long DEFAULT_SHUTDOWN_TIMEOUT = 60_000L;
+    static final long DEFAULT_DEPLOYMENT_START_TIMEOUT = 0L;
+    static final long DEFAULT_DEPLOYMENT_TIMEOUT = 0L;
+    static final boolean DEFAULT_RECONCILE_ON_START = true;
+    static final int DEFAULT_DESCRIPTOR_CACHE_SIZE = 1024;
+    static final long DEFAULT_WRAPPER_CACHE_SIZE = 8L * 1024 * 1024;
+    static final long DEFAULT_REPOSITORY_NEGATIVE_TTL = 60_000L;
+    static final int DEFAULT_DIAG_HISTORY_SIZE = 5;
+    static final boolean DEFAULT_PREFLIGHT = false;
+    static final int DEFAULT_PREFETCH_THREADS = 0;
+    static final String DEFAULT_WARM_START_SNAPSHOT = "";
+    static final boolean DEFAULT_VALIDATE_REQUIREMENTS = false;
+
+    private long batchWindow = DEFAULT_BATCH_WINDOW;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+    private long deploymentStartTimeout = DEFAULT_DEPLOYMENT_START_TIMEOUT;
+    private long deploymentTimeout = DEFAULT_DEPLOYMENT_TIMEOUT;
+    private boolean reconcileOnStart = DEFAULT_RECONCILE_ON_START;
+    private int descriptorCacheSize = DEFAULT_DESCRIPTOR_CACHE_SIZE;
+    private long wrapperCacheSize = DEFAULT_WRAPPER_CACHE_SIZE;
+    private long repositoryNegativeTtl = DEFAULT_REPOSITORY_NEGATIVE_TTL;
+    private int diagHistorySize = DEFAULT_DIAG_HISTORY_SIZE;
+    private boolean preflight = DEFAULT_PREFLIGHT;
+    private int prefetchThreads = DEFAULT_PREFETCH_THREADS;
+    private String warmStartSnapshot = DEFAULT_WARM_START_SNAPSHOT;
+    private boolean validateRequirements = DEFAULT_VALIDATE_REQUIREMENTS;
+
+    /**
+     * Milliseconds to collect bundle events before they are deployed together. Zero disables batching.
+     */
+    long getBatchWindow() {
+        return batchWindow;
+    }
+
+    DeployerConfig setBatchWindow(final long batchWindow) {
+        this.batchWindow = Math.max(0L, batchWindow);
+        return this;
+    }
+
+    /**
+     * Bundle events waiting for deployer worker. Bundle listener blocks when it is full.
+     */
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    DeployerConfig setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+        return this;
+    }
+
+    /**
+     * Milliseconds to wait on stop for deployment of already queued events.
+     */
+    long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    DeployerConfig setShutdownTimeout(final long shutdownTimeout) {
+        this.shutdownTimeout = Math.max(0L, shutdownTimeout);
+        return this;
+    }
+
+    /**
+     * Milliseconds to wait for Karaf to start deployment after requirements update returned. Zero (Karaf deploys
+     * within update call) for no wait.
+     */
+    long getDeploymentStartTimeout() {
+        return deploymentStartTimeout;
+    }
+
+    DeployerConfig setDeploymentStartTimeout(final long deploymentStartTimeout) {
+        this.deploymentStartTimeout = Math.max(0L, deploymentStartTimeout);
+        return this;
+    }
+
+    /**
+     * Milliseconds to wait for started deployment to finish, zero for unlimited wait.
+     */
+    long getDeploymentTimeout() {
+        return deploymentTimeout;
+    }
+
+    DeployerConfig setDeploymentTimeout(final long deploymentTimeout) {
+        this.deploymentTimeout = Math.max(0L, deploymentTimeout);
+        return this;
+    }
+
+    /**
+     * Apply all installed descriptor bundles on start by single deployment instead of replaying bundle events.
+     */
+    boolean isReconcileOnStart() {
+        return reconcileOnStart;
+    }
+
+    DeployerConfig setReconcileOnStart(final boolean reconcileOnStart) {
+        this.reconcileOnStart = reconcileOnStart;
+        return this;
+    }
+
+    /**
+     * Bundles to remember parsed descriptor (or its absence) for.
+     */
+    int getDescriptorCacheSize() {
+        return descriptorCacheSize;
+    }
+
+    DeployerConfig setDescriptorCacheSize(final int descriptorCacheSize) {
+        this.descriptorCacheSize = Math.max(0, descriptorCacheSize);
+        return this;
+    }
+
+    /**
+     * Bytes of generated wrapper bundles to cache. Bundles larger than quarter of it are not cached.
+     */
+    long getWrapperCacheSize() {
+        return wrapperCacheSize;
+    }
+
+    DeployerConfig setWrapperCacheSize(final long wrapperCacheSize) {
+        this.wrapperCacheSize = Math.max(0L, wrapperCacheSize);
+        return this;
+    }
+
+    /**
+     * Milliseconds to remember that repository name can't be resolved.
+     */
+    long getRepositoryNegativeTtl() {
+        return repositoryNegativeTtl;
+    }
+
+    DeployerConfig setRepositoryNegativeTtl(final long repositoryNegativeTtl) {
+        this.repositoryNegativeTtl = Math.max(0L, repositoryNegativeTtl);
+        return this;
+    }
+
+    /**
+     * Recent deployments of each bundle kept for diagnostics.
+     */
+    int getDiagHistorySize() {
+        return diagHistorySize;
+    }
+
+    DeployerConfig setDiagHistorySize(final int diagHistorySize) {
+        this.diagHistorySize = Math.max(1, diagHistorySize);
+        return this;
+    }
+
+    /**
+     * Simulate requirements update before deployment and reject descriptors that can't be resolved.
+     */
+    boolean isPreflight() {
+        return preflight;
+    }
+
+    DeployerConfig setPreflight(final boolean preflight) {
+        this.preflight = preflight;
+        return this;
+    }
+
+    /**
+     * @return threads loading new features repositories before deployment, {@code 0} disables prefetch
+     */
+    int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    DeployerConfig setPrefetchThreads(final int prefetchThreads) {
+        this.prefetchThreads = Math.max(0, prefetchThreads);
+        return this;
+    }
+
+    /**
+     * @return snapshot file applied on start when it matches installed descriptor bundles, empty disables
+     */
+    String getWarmStartSnapshot() {
+        return warmStartSnapshot;
+    }
+
+    DeployerConfig setWarmStartSnapshot(final String warmStartSnapshot) {
+        this.warmStartSnapshot = warmStartSnapshot;
+        return this;
+    }
+
+    /**
+     * @return whether requirements are checked against features of known repositories before deployment
+     */
+    boolean isValidateRequirements() {
+        return validateRequirements;
+    }
+
+    DeployerConfig setValidateRequirements(final boolean validateRequirements) {
+        this.validateRequirements = validateRequirements;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "DeployerConfig{" +
+                "batchWindow=" + batchWindow +
+                ", queueCapacity=" + queueCapacity +
+                ", shutdownTimeout=" + shutdownTimeout +
+                ", deploymentStartTimeout=" + deploymentStartTimeout +
+                ", deploymentTimeout=" + deploymentTimeout +
+                ", reconcileOnStart=" + reconcileOnStart +
+                ", descriptorCacheSize=" + descriptorCacheSize +
+                ", wrapperCacheSize=" + wrapperCacheSize +
+                ", repositoryNegativeTtl=" + repositoryNegativeTtl +
+                ", diagHistorySize=" + diagHistorySize +
+                ", preflight=" + preflight +
+                ", prefetchThreads=" + prefetchThreads +
+                ", warmStartSnapshot=" + warmStartSnapshot +
+                ", validateRequirements=" + validateRequirements +
+                '}';
+    }
+}
@@ -0,0 +1,156 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+/**
+ * Deployer counters and per-phase timers. Recording is a few atomic updates without allocation, so it is always on.
+ */
+final class DeployerMetrics {
+    enum Phase {
+        STATE_READ, DESCRIPTOR_PARSE, DIFF, PREFETCH, VALIDATE, PREFLIGHT, UPDATE_REQUIREMENTS, WAIT_START, WAIT_FINISH,
+        ENSURE_SATISFIED, SAVE_STATE
+    }
+
+    private final Histogram[] phases = new Histogram[Phase.values().length];
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final IntSupplier queueDepth;
+
+    DeployerMetrics(final IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    void record(final Phase phase, final long durationNanos) {
+        phases[phase.ordinal()].record(durationNanos);
+    }
+
+    void eventQueued() {
+        events.incrementAndGet();
+    }
+
+    void eventMerged() {
+        merged.incrementAndGet();
+    }
+
+    void skipped(final int bundles) {
+        skipped.addAndGet(bundles);
+    }
+
+    void failed() {
+        failures.incrementAndGet();
+    }
+
+    Histogram getHistogram(final Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    long getEvents() {
+        return events.get();
+    }
+
+    long getMerged() {
+        return merged.get();
+    }
+
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    long getFailures() {
+        return failures.get();
+    }
+
+    int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    void reset() {
+        for (Histogram histogram : phases) {
+            histogram.reset();
+        }
+        events.set(0);
+        merged.set(0);
+        skipped.set(0);
+        failures.set(0);
+    }
+
+    /**
+     * Durations in power of two nanosecond buckets: bucket {@code i} counts durations in {@code [2^i, 2^(i+1))}.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 64;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(final long nanos) {
+            final long value = Math.max(1L, nanos);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getTotalNanos() {
+            return total.get();
+        }
+
+        long getMaxNanos() {
+            return max.get();
+        }
+
+        long[] getBuckets() {
+            final long[] result = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                result[i] = buckets.get(i);
+            }
+            return result;
+        }
+
+        /**
+         * @param fraction quantile in {@code (0, 1]}
+         * @return upper bound of the bucket holding quantile, zero if nothing recorded
+         */
+        long getQuantileNanos(final double fraction) {
+            final long[] snapshot = getBuckets();
+            long recorded = 0;
+            for (long bucket : snapshot) {
+                recorded += bucket;
+            }
+            final long rank = (long) Math.ceil(recorded * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                }
+            }
+            return 0;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+    }
+}
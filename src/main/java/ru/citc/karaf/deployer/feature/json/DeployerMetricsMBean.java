@@ -0,0 +1,42 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * JSON feature deployer metrics. Durations are in microseconds, quantiles are upper bounds of power of two buckets.
+ */
+public interface DeployerMetricsMBean {
+    /**
+     * @return bundle events queued for deployment
+     */
+    long getEvents();
+
+    /**
+     * @return bundle events merged into event of the same bundle still waiting in queue
+     */
+    long getMerged();
+
+    /**
+     * @return bundle deployments finished without Karaf deployment because nothing changed
+     */
+    long getSkipped();
+
+    /**
+     * @return failed bundle deployments
+     */
+    long getFailures();
+
+    int getQueueDepth();
+
+    /**
+     * @return count, total, max and quantiles of each deployment phase
+     */
+    TabularData getPhases();
+
+    /**
+     * @return counts of phase durations in {@code [2^i, 2^(i+1))} nanoseconds buckets
+     */
+    long[] getHistogram(String phase);
+
+    void reset();
+}
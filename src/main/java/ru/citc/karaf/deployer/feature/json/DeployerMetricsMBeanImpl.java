@@ -0,0 +1,103 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+final class DeployerMetricsMBeanImpl extends StandardMBean implements DeployerMetricsMBean {
+    private static final String[] PHASE_ITEMS = {
+            "phase", "count", "totalMicros", "maxMicros", "p50Micros", "p90Micros", "p99Micros"};
+    private static final CompositeType PHASE_TYPE;
+    private static final TabularType PHASES_TYPE;
+
+    static {
+        try {
+            final OpenType<?>[] types = new OpenType<?>[PHASE_ITEMS.length];
+            types[0] = SimpleType.STRING;
+            for (int i = 1; i < types.length; i++) {
+                types[i] = SimpleType.LONG;
+            }
+            PHASE_TYPE = new CompositeType("Phase", "Deployment phase timings", PHASE_ITEMS, PHASE_ITEMS, types);
+            PHASES_TYPE = new TabularType("Phases", "Deployment phases timings", PHASE_TYPE,
+                    new String[]{PHASE_ITEMS[0]});
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final DeployerMetrics metrics;
+
+    DeployerMetricsMBeanImpl(final DeployerMetrics metrics) throws NotCompliantMBeanException {
+        super(DeployerMetricsMBean.class);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public long getEvents() {
+        return metrics.getEvents();
+    }
+
+    @Override
+    public long getMerged() {
+        return metrics.getMerged();
+    }
+
+    @Override
+    public long getSkipped() {
+        return metrics.getSkipped();
+    }
+
+    @Override
+    public long getFailures() {
+        return metrics.getFailures();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return metrics.getQueueDepth();
+    }
+
+    @Override
+    public TabularData getPhases() {
+        final TabularData result = new TabularDataSupport(PHASES_TYPE);
+        for (DeployerMetrics.Phase phase : DeployerMetrics.Phase.values()) {
+            final DeployerMetrics.Histogram histogram = metrics.getHistogram(phase);
+            try {
+                result.put(new CompositeDataSupport(PHASE_TYPE, PHASE_ITEMS, new Object[]{
+                        phase.name().toLowerCase(Locale.ENGLISH),
+                        histogram.getCount(),
+                        micros(histogram.getTotalNanos()),
+                        micros(histogram.getMaxNanos()),
+                        micros(histogram.getQuantileNanos(0.5)),
+                        micros(histogram.getQuantileNanos(0.9)),
+                        micros(histogram.getQuantileNanos(0.99))}));
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getHistogram(final String phase) {
+        return metrics.getHistogram(DeployerMetrics.Phase.valueOf(phase.toUpperCase(Locale.ENGLISH))).getBuckets();
+    }
+
+    @Override
+    public void reset() {
+        metrics.reset();
+    }
+
+    private static long micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,208 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.osgi.framework.Bundle;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolved state of all applied descriptors: merged repository URIs and requirements, repository names resolution
+ * and descriptor fingerprints by bundle symbolic name and version. Node with the same descriptor bundles applies it
+ * in one step without per-bundle reconciliation.
+ */
+final class DeployerSnapshot {
+    private static final String FIELD_VERSION = "snapshotVersion";
+    private static final String FIELD_REPOSITORIES = "repositories";
+    private static final String FIELD_REPOSITORY_NAMES = "repositoryNames";
+    private static final String FIELD_REQUIREMENTS = "requirements";
+    private static final String FIELD_FINGERPRINTS = "fingerprints";
+    private static final String[] FIELDS = {
+            FIELD_VERSION, FIELD_REPOSITORIES, FIELD_REPOSITORY_NAMES, FIELD_REQUIREMENTS, FIELD_FINGERPRINTS};
+    private static final String VERSION = "1";
+
+    private final Set<URI> repositories = new LinkedHashSet<>();
+    private final Map<String, URI> repositoryNames = new LinkedHashMap<>();
+    private final Map<String, Set<FeatureRequirement>> requirements = new LinkedHashMap<>();
+    private final Map<String, String> fingerprints = new LinkedHashMap<>();
+
+    /**
+     * @return key identifying bundle across nodes
+     */
+    static String bundleKey(final Bundle bundle) {
+        return bundle.getSymbolicName() == null ? bundle.getLocation()
+                : bundle.getSymbolicName() + '/' + bundle.getVersion();
+    }
+
+    /**
+     * Adds applied descriptor of bundle.
+     */
+    void add(final Bundle bundle, final FeaturesDescriptor descriptor, final RepositoryResolver repositoryResolver) {
+        fingerprints.put(bundleKey(bundle), descriptor.fingerprint());
+        for (String repository : descriptor.getRepositories()) {
+            final URI repoUri = repositoryResolver.resolve(repository);
+            if (repoUri != null) {
+                repositories.add(repoUri);
+                if (!repoUri.toString().equals(repository)) {
+                    repositoryNames.put(repository, repoUri);
+                }
+            }
+        }
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : descriptor.getRequirements().entrySet()) {
+            requirements.computeIfAbsent(regionToFeatures.getKey(), key -> new LinkedHashSet<>())
+                    .addAll(regionToFeatures.getValue());
+        }
+    }
+
+    /**
+     * @return {@code true} if descriptor fingerprints by bundle key are exactly the same
+     */
+    boolean matches(final Map<String, String> bundleFingerprints) {
+        return fingerprints.equals(bundleFingerprints);
+    }
+
+    Map<String, URI> getRepositoryNames() {
+        return Collections.unmodifiableMap(repositoryNames);
+    }
+
+    /**
+     * Adds snapshot repositories and requirements to Karaf ones.
+     */
+    void applyTo(final KarafRequirements featureReqs, final Set<URI> requiredReposUris) {
+        requiredReposUris.addAll(repositories);
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : requirements.entrySet()) {
+            featureReqs.addAll(regionToFeatures.getKey(), regionToFeatures.getValue());
+        }
+    }
+
+    /**
+     * Atomically replaces file with snapshot.
+     */
+    void write(final Path file) throws IOException {
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            final JsonWriter json = new JsonWriter(writer);
+            json.beginObject();
+            json.name(FIELD_VERSION).value(VERSION);
+            json.name(FIELD_REPOSITORIES).beginArray();
+            for (URI repository : repositories) {
+                json.value(repository.toString());
+            }
+            json.endArray();
+            json.name(FIELD_REPOSITORY_NAMES).beginObject();
+            for (Map.Entry<String, URI> name : repositoryNames.entrySet()) {
+                json.name(name.getKey()).value(name.getValue().toString());
+            }
+            json.endObject();
+            json.name(FIELD_REQUIREMENTS).beginObject();
+            for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : requirements.entrySet()) {
+                json.name(regionToFeatures.getKey()).beginArray();
+                for (FeatureRequirement requirement : regionToFeatures.getValue()) {
+                    json.value(requirement.toSpec());
+                }
+                json.endArray();
+            }
+            json.endObject();
+            json.name(FIELD_FINGERPRINTS).beginObject();
+            for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+                json.name(fingerprint.getKey()).value(fingerprint.getValue());
+            }
+            json.endObject();
+            json.endObject();
+            json.flush();
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @throws DescriptorSyntaxException if file is not valid snapshot
+     */
+    static DeployerSnapshot read(final Path file) throws IOException {
+        final DeployerSnapshot snapshot = new DeployerSnapshot();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            final JsonReader json = new JsonReader(reader);
+            String version = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.selectName(FIELDS)) {
+                    case 0:
+                        version = json.nextString();
+                        if (!VERSION.equals(version)) {
+                            throw json.error("Unsupported snapshot version " + version);
+                        }
+                        break;
+                    case 1:
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            snapshot.repositories.add(uri(json));
+                        }
+                        json.endArray();
+                        break;
+                    case 2:
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            final String name = json.nextName();
+                            snapshot.repositoryNames.put(name, uri(json));
+                        }
+                        json.endObject();
+                        break;
+                    case 3:
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            final Set<FeatureRequirement> regionFeatures = snapshot.requirements
+                                    .computeIfAbsent(json.nextName(), key -> new LinkedHashSet<>());
+                            json.beginArray();
+                            while (json.hasNext()) {
+                                final String spec = json.nextString();
+                                final FeatureRequirement requirement = FeatureRequirement.parse(spec);
+                                if (requirement == null) {
+                                    throw json.error("Invalid feature requirement " + spec);
+                                }
+                                regionFeatures.add(requirement);
+                            }
+                            json.endArray();
+                        }
+                        json.endObject();
+                        break;
+                    case 4:
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            final String bundleKey = json.nextName();
+                            snapshot.fingerprints.put(bundleKey, json.nextString());
+                        }
+                        json.endObject();
+                        break;
+                    default:
+                        json.skipValue();
+                        break;
+                }
+            }
+            if (version == null) {
+                throw json.error("Invalid snapshot: '" + FIELD_VERSION + "' is required.");
+            }
+            json.endObject();
+            json.endDocument();
+        }
+        return snapshot;
+    }
+
+    private static URI uri(final JsonReader json) throws IOException {
+        final String value = json.nextString();
+        try {
+            return new URI(value);
+        } catch (URISyntaxException e) {
+            throw json.error("Invalid repository URI " + value);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.List;
+
+/**
+ * Recent descriptor deployments, kept for diagnostics.
+ */
+public interface DeploymentHistory {
+    /**
+     * @return up to {@code count} slowest recent deployments, slowest first
+     * @throws IllegalArgumentException if {@code count} is not positive
+     */
+    List<DeploymentTimeline> getSlowest(int count);
+}
@@ -0,0 +1,65 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ring of recent deployment timelines for each bundle.
+ */
+final class DeploymentHistoryImpl implements DeploymentHistory {
+    private final int size;
+    private final Map<Long, Deque<DeploymentTimeline>> timelines = new ConcurrentHashMap<>();
+
+    DeploymentHistoryImpl(final int size) {
+        this.size = size;
+    }
+
+    void record(final DeploymentTimeline timeline) {
+        final Deque<DeploymentTimeline> ring = timelines.computeIfAbsent(timeline.getBundleId(),
+                key -> new ArrayDeque<>(size));
+        synchronized (ring) {
+            if (ring.size() == size) {
+                ring.removeFirst();
+            }
+            ring.addLast(timeline);
+        }
+    }
+
+    /**
+     * @return recent timelines of bundle, oldest first
+     */
+    List<DeploymentTimeline> get(final long bundleId) {
+        final Deque<DeploymentTimeline> ring = timelines.get(bundleId);
+        if (ring == null) {
+            return Collections.emptyList();
+        }
+        synchronized (ring) {
+            return new ArrayList<>(ring);
+        }
+    }
+
+    void remove(final long bundleId) {
+        timelines.remove(bundleId);
+    }
+
+    @Override
+    public List<DeploymentTimeline> getSlowest(final int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Count must be positive: " + count);
+        }
+        final List<DeploymentTimeline> all = new ArrayList<>();
+        for (Deque<DeploymentTimeline> ring : timelines.values()) {
+            synchronized (ring) {
+                all.addAll(ring);
+            }
+        }
+        all.sort(Comparator.comparingLong(DeploymentTimeline::getTotalNanos).reversed());
+        return all.subList(0, Math.min(count, all.size()));
+    }
+}
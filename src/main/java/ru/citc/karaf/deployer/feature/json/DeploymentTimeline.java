@@ -0,0 +1,110 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.bundle.core.BundleState;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One deployment of a bundle descriptor: when it started, how long each phase took, what it changed and how it ended.
+ */
+public final class DeploymentTimeline {
+    static final long NOT_RUN = -1L;
+
+    private final long bundleId;
+    private final String bundleName;
+    private final long startedAt;
+    private final long[] phaseNanos;
+    private final long totalNanos;
+    private final List<String> delta;
+    private final Set<FeatureRequirement> unsatisfied;
+    private final BundleState outcome;
+    private final String error;
+
+    DeploymentTimeline(final long bundleId, final String bundleName, final long startedAt, final long[] phaseNanos,
+                       final long totalNanos, final List<String> delta, final Set<FeatureRequirement> unsatisfied,
+                       final BundleState outcome, final String error) {
+        this.bundleId = bundleId;
+        this.bundleName = bundleName;
+        this.startedAt = startedAt;
+        this.phaseNanos = phaseNanos;
+        this.totalNanos = totalNanos;
+        this.delta = delta;
+        this.unsatisfied = unsatisfied;
+        this.outcome = outcome;
+        this.error = error;
+    }
+
+    long getBundleId() {
+        return bundleId;
+    }
+
+    String getBundleName() {
+        return bundleName;
+    }
+
+    /**
+     * @return wall clock milliseconds
+     */
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return phase duration or {@link #NOT_RUN}
+     */
+    long getPhaseNanos(final DeployerMetrics.Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return longest phase or {@code null} if none run
+     */
+    DeployerMetrics.Phase getSlowestPhase() {
+        DeployerMetrics.Phase slowest = null;
+        for (DeployerMetrics.Phase phase : DeployerMetrics.Phase.values()) {
+            if (phaseNanos[phase.ordinal()] != NOT_RUN
+                    && (slowest == null || phaseNanos[phase.ordinal()] > phaseNanos[slowest.ordinal()])) {
+                slowest = phase;
+            }
+        }
+        return slowest;
+    }
+
+    BundleState getOutcome() {
+        return outcome;
+    }
+
+    void render(final StringBuilder out) {
+        out.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(startedAt)))
+                .append(' ').append(outcome).append(" in ").append(millis(totalNanos)).append(" ms:");
+        for (DeployerMetrics.Phase phase : DeployerMetrics.Phase.values()) {
+            if (phaseNanos[phase.ordinal()] != NOT_RUN) {
+                out.append(' ').append(phase.name().toLowerCase(Locale.ENGLISH)).append('=')
+                        .append(millis(phaseNanos[phase.ordinal()]));
+            }
+        }
+        out.append('\n');
+        for (String change : delta) {
+            out.append("    ").append(change).append('\n');
+        }
+        if (!unsatisfied.isEmpty()) {
+            out.append("    unsatisfied: ").append(unsatisfied).append('\n');
+        }
+        if (error != null) {
+            out.append("    error: ").append(error).append('\n');
+        }
+    }
+
+    static String millis(final long nanos) {
+        return String.format(Locale.ENGLISH, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,108 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.DeploymentEvent;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Binds Karaf {@link DeploymentEvent}s to deployments requested by this deployer. Each request gets own started and
+ * finished futures, so events are never lost between request and wait and no monitors are shared with the Karaf
+ * event thread.
+ */
+final class DeploymentTracker {
+    private final Queue<Deployment> deployments = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registers deployment before requesting it from Karaf. Must be closed when request is done.
+     */
+    Deployment begin() {
+        final Deployment deployment = new Deployment();
+        deployments.add(deployment);
+        return deployment;
+    }
+
+    void deploymentEvent(final DeploymentEvent event) {
+        if (event == DeploymentEvent.DEPLOYMENT_STARTED) {
+            for (Deployment deployment : deployments) {
+                if (deployment.started.complete(null)) {
+                    return;
+                }
+            }
+        } else if (event == DeploymentEvent.DEPLOYMENT_FINISHED) {
+            for (Deployment deployment : deployments) {
+                if (deployment.started.isDone() && deployment.finished.complete(null)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    final class Deployment implements AutoCloseable {
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+        private Deployment() {
+        }
+
+        /**
+         * Waits for requested deployment. Returns immediately if it is already finished.
+         *
+         * @param startTimeout  milliseconds to wait for start of deployment that not started yet, zero for no wait
+         * @param finishTimeout milliseconds to wait for started deployment to finish, zero for unlimited wait
+         * @return {@code false} if Karaf did not start deployment
+         * @throws TimeoutException if started deployment not finished in time
+         */
+        boolean await(final long startTimeout, final long finishTimeout) throws InterruptedException, TimeoutException {
+            if (!awaitStart(startTimeout)) {
+                return false;
+            }
+            awaitFinish(finishTimeout);
+            return true;
+        }
+
+        /**
+         * @param startTimeout milliseconds to wait for start of deployment that not started yet, zero for no wait
+         * @return {@code false} if Karaf did not start deployment
+         */
+        boolean awaitStart(final long startTimeout) throws InterruptedException {
+            if (!started.isDone()) {
+                if (startTimeout <= 0) {
+                    return false;
+                }
+                try {
+                    get(started, startTimeout);
+                } catch (TimeoutException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param finishTimeout milliseconds to wait for started deployment to finish, zero for unlimited wait
+         * @throws TimeoutException if deployment not finished in time
+         */
+        void awaitFinish(final long finishTimeout) throws InterruptedException, TimeoutException {
+            get(finished, finishTimeout <= 0 ? Long.MAX_VALUE : finishTimeout);
+        }
+
+        @Override
+        public void close() {
+            deployments.remove(this);
+        }
+
+        private void get(final CompletableFuture<Void> future, final long timeout)
+                throws InterruptedException, TimeoutException {
+            try {
+                future.get(timeout, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.util.StreamUtils;
+import org.osgi.framework.Bundle;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of parsed bundle descriptors. Entry is valid while bundle last modified time is the same, so
+ * repeated events of unchanged bundle touch neither bundle content nor parser. Changed content is detected by hash,
+ * bundles without descriptor are cached too.
+ */
+final class DescriptorCache {
+    private final int maxSize;
+    private final Map<Long, Entry> entries;
+
+    DescriptorCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Entry> eldest) {
+                return size() > DescriptorCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return bundle's descriptor or {@code null} if bundle has no one
+     * @throws DescriptorSyntaxException if descriptor is invalid
+     */
+    FeaturesDescriptor get(final Bundle bundle) throws IOException {
+        final long bundleId = bundle.getBundleId();
+        final long lastModified = bundle.getLastModified();
+        final Entry cached;
+        synchronized (entries) {
+            cached = entries.get(bundleId);
+        }
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.descriptor;
+        }
+        final URL descriptorUrl = bundle.getResource(JsonFeatureURLHandler.JSON_FEATURE_DESCRIPTOR_PATH);
+        final Entry entry;
+        if (descriptorUrl == null) {
+            entry = new Entry(lastModified, null, null);
+        } else {
+            final byte[] content;
+            try (InputStream is = descriptorUrl.openStream()) {
+                final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                StreamUtils.copy(is, os);
+                content = os.toByteArray();
+            }
+            final byte[] hash = hash(content);
+            if (cached != null && Arrays.equals(hash, cached.hash)) {
+                entry = new Entry(lastModified, hash, cached.descriptor);
+            } else {
+                try (Reader reader = new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)) {
+                    entry = new Entry(lastModified, hash, FeaturesDescriptor.read(reader));
+                }
+            }
+        }
+        synchronized (entries) {
+            entries.put(bundleId, entry);
+        }
+        return entry.descriptor;
+    }
+
+    void evict(final long bundleId) {
+        synchronized (entries) {
+            entries.remove(bundleId);
+        }
+    }
+
+    static byte[] hash(final byte[] content) {
+        return hash(content, content.length);
+    }
+
+    /**
+     * @return SHA-256 of first {@code length} bytes of content
+     */
+    static byte[] hash(final byte[] content, final int length) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content, 0, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final byte[] hash;
+        private final FeaturesDescriptor descriptor;
+
+        private Entry(final long lastModified, final byte[] hash, final FeaturesDescriptor descriptor) {
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.descriptor = descriptor;
+        }
+    }
+}
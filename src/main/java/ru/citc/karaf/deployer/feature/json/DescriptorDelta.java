@@ -0,0 +1,142 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+/**
+ * Repositories and requirements added and removed by descriptor change, so edit of large descriptor is applied at
+ * cost of the change.
+ */
+final class DescriptorDelta {
+    private final Set<String> addedRepositories;
+    private final Set<String> removedRepositories;
+    private final Map<String, Set<FeatureRequirement>> addedRequirements;
+    private final Map<String, Set<FeatureRequirement>> removedRequirements;
+
+    private DescriptorDelta(final FeaturesDescriptor from, final FeaturesDescriptor to) {
+        addedRepositories = difference(to.getRepositories(), from.getRepositories());
+        removedRepositories = difference(from.getRepositories(), to.getRepositories());
+        addedRequirements = difference(to.getRequirements(), from.getRequirements());
+        removedRequirements = difference(from.getRequirements(), to.getRequirements());
+    }
+
+    /**
+     * @param from applied descriptor or {@code null}
+     * @param to   new descriptor or {@code null}
+     */
+    static DescriptorDelta of(final FeaturesDescriptor from, final FeaturesDescriptor to) {
+        return new DescriptorDelta(from == null ? FeaturesDescriptor.EMPTY : from,
+                to == null ? FeaturesDescriptor.EMPTY : to);
+    }
+
+    Set<String> getAddedRepositories() {
+        return addedRepositories;
+    }
+
+    Set<String> getRemovedRepositories() {
+        return removedRepositories;
+    }
+
+    Map<String, Set<FeatureRequirement>> getAddedRequirements() {
+        return addedRequirements;
+    }
+
+    Map<String, Set<FeatureRequirement>> getRemovedRequirements() {
+        return removedRequirements;
+    }
+
+    /**
+     * Removes requirements this change dropped from Karaf requirements.
+     *
+     * @param retained tells if requirement of region is still owned elsewhere and must stay
+     */
+    void unapplyRequirements(final KarafRequirements featureReqs,
+                             final BiPredicate<String, FeatureRequirement> retained) {
+        for (Map.Entry<String, Set<FeatureRequirement>> regionReqs : removedRequirements.entrySet()) {
+            final String region = regionReqs.getKey();
+            final Set<FeatureRequirement> released = new LinkedHashSet<>();
+            for (FeatureRequirement requirement : regionReqs.getValue()) {
+                if (!retained.test(region, requirement)) {
+                    released.add(requirement);
+                }
+            }
+            featureReqs.removeAll(region, released);
+        }
+    }
+
+    boolean isEmpty() {
+        return addedRepositories.isEmpty() && removedRepositories.isEmpty() && addedRequirements.isEmpty()
+                && removedRequirements.isEmpty();
+    }
+
+    /**
+     * @return change lines, feature with another version in the same region is shown as re-versioned
+     */
+    List<String> describe() {
+        final List<String> lines = new ArrayList<>();
+        addedRepositories.forEach(repository -> lines.add("+ repository " + repository));
+        removedRepositories.forEach(repository -> lines.add("- repository " + repository));
+        for (Map.Entry<String, Set<FeatureRequirement>> regionAdded : addedRequirements.entrySet()) {
+            final String region = regionAdded.getKey();
+            final Set<FeatureRequirement> regionRemoved = removedRequirements.getOrDefault(region,
+                    Collections.emptySet());
+            for (FeatureRequirement requirement : regionAdded.getValue()) {
+                final FeatureRequirement previous = sameName(regionRemoved, requirement);
+                lines.add(previous == null ? "+ " + region + " " + requirement
+                        : "~ " + region + " " + previous + " -> " + requirement.getVersion());
+            }
+        }
+        for (Map.Entry<String, Set<FeatureRequirement>> regionRemoved : removedRequirements.entrySet()) {
+            final String region = regionRemoved.getKey();
+            final Set<FeatureRequirement> regionAdded = addedRequirements.getOrDefault(region,
+                    Collections.emptySet());
+            for (FeatureRequirement requirement : regionRemoved.getValue()) {
+                if (sameName(regionAdded, requirement) == null) {
+                    lines.add("- " + region + " " + requirement);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static FeatureRequirement sameName(final Set<FeatureRequirement> requirements,
+                                               final FeatureRequirement requirement) {
+        for (FeatureRequirement candidate : requirements) {
+            if (candidate.getName().equals(requirement.getName())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> difference(final Set<String> from, final Set<String> except) {
+        final Set<String> result = new LinkedHashSet<>();
+        for (String item : from) {
+            if (!except.contains(item)) {
+                result.add(item);
+            }
+        }
+        return result.isEmpty() ? Collections.emptySet() : result;
+    }
+
+    private static Map<String, Set<FeatureRequirement>> difference(final Map<String, Set<FeatureRequirement>> from,
+                                                                   final Map<String, Set<FeatureRequirement>> except) {
+        final Map<String, Set<FeatureRequirement>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : from.entrySet()) {
+            final Set<FeatureRequirement> excluded = except.getOrDefault(regionToFeatures.getKey(),
+                    Collections.emptySet());
+            for (FeatureRequirement requirement : regionToFeatures.getValue()) {
+                if (!excluded.contains(requirement)) {
+                    result.computeIfAbsent(regionToFeatures.getKey(), key -> new LinkedHashSet<>()).add(requirement);
+                }
+            }
+        }
+        return result.isEmpty() ? Collections.emptyMap() : result;
+    }
+}
@@ -0,0 +1,25 @@
+package ru.citc.karaf.deployer.feature.json;
+
+/**
+ * Malformed or invalid JSON document, with position of the problem.
+ */
+final class DescriptorSyntaxException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    DescriptorSyntaxException(final String message, final int line, final int column) {
+        super(message + " at line " + line + ", column " + column);
+        this.line = line;
+        this.column = column;
+    }
+
+    int getLine() {
+        return line;
+    }
+
+    int getColumn() {
+        return column;
+    }
+}
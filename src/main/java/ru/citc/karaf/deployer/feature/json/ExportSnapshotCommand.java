@@ -0,0 +1,27 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+
+import java.io.File;
+
+@Command(scope = "json-feature", name = "export-snapshot",
+        description = "Exports applied JSON feature descriptors for warm start of other nodes")
+@Service
+public class ExportSnapshotCommand implements Action {
+    @Argument(name = "file", description = "Snapshot file to write", required = true)
+    String file;
+
+    @Reference
+    SnapshotExporter exporter;
+
+    @Override
+    public Object execute() throws Exception {
+        exporter.exportSnapshot(new File(file));
+        System.out.println("Snapshot exported to " + file);
+        return null;
+    }
+}
@@ -0,0 +1,173 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.Feature;
+import org.apache.karaf.features.Repository;
+import org.osgi.framework.Version;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Index of feature versions by name over known repositories. Kept up to date by repository events, so requirement
+ * on unknown feature or version is found before Karaf resolution.
+ */
+final class FeatureCatalog {
+    private static final int MAX_SUGGESTION_DISTANCE = 2;
+    private static final int MAX_SUGGESTIONS = 3;
+
+    private final Map<URI, Map<String, Set<Version>>> repositories = new HashMap<>();
+    // Number of repositories providing each feature version
+    private final Map<String, Map<Version, Integer>> features = new HashMap<>();
+    private boolean indexed;
+
+    /**
+     * Replaces index content with features of given repositories.
+     */
+    synchronized void reset(final Repository[] known) {
+        repositories.clear();
+        features.clear();
+        for (Repository repository : known) {
+            add(repository);
+        }
+        indexed = true;
+    }
+
+    /**
+     * @return {@code true} once all Karaf repositories were indexed
+     */
+    synchronized boolean isIndexed() {
+        return indexed;
+    }
+
+    synchronized void add(final Repository repository) {
+        remove(repository.getURI());
+        final Map<String, Set<Version>> provided = features(repository);
+        repositories.put(repository.getURI(), provided);
+        for (Map.Entry<String, Set<Version>> feature : provided.entrySet()) {
+            final Map<Version, Integer> versions = features.computeIfAbsent(feature.getKey(), key -> new HashMap<>());
+            for (Version version : feature.getValue()) {
+                versions.merge(version, 1, Integer::sum);
+            }
+        }
+    }
+
+    synchronized void remove(final URI repositoryUri) {
+        final Map<String, Set<Version>> provided = repositories.remove(repositoryUri);
+        if (provided == null) {
+            return;
+        }
+        for (Map.Entry<String, Set<Version>> feature : provided.entrySet()) {
+            final Map<Version, Integer> versions = features.get(feature.getKey());
+            for (Version version : feature.getValue()) {
+                versions.computeIfPresent(version, (key, count) -> count == 1 ? null : count - 1);
+            }
+            if (versions.isEmpty()) {
+                features.remove(feature.getKey());
+            }
+        }
+    }
+
+    synchronized boolean contains(final URI repositoryUri) {
+        return repositories.containsKey(repositoryUri);
+    }
+
+    /**
+     * Checks requirements against indexed features and features of repositories not indexed yet.
+     *
+     * @param pending repositories about to be added
+     * @return problem description for each requirement no known feature satisfies
+     */
+    synchronized List<String> check(final Map<String, Set<FeatureRequirement>> requirements,
+                                    final Collection<Repository> pending) {
+        final Map<String, Set<Version>> pendingFeatures = new HashMap<>();
+        for (Repository repository : pending) {
+            features(repository).forEach((name, versions) ->
+                    pendingFeatures.computeIfAbsent(name, key -> new TreeSet<>()).addAll(versions));
+        }
+        final List<String> problems = new ArrayList<>();
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : requirements.entrySet()) {
+            for (FeatureRequirement requirement : regionToFeatures.getValue()) {
+                final Set<Version> versions = new TreeSet<>(features.getOrDefault(requirement.getName(),
+                        Collections.emptyMap()).keySet());
+                versions.addAll(pendingFeatures.getOrDefault(requirement.getName(), Collections.emptySet()));
+                if (versions.isEmpty()) {
+                    problems.add(regionToFeatures.getKey() + " " + requirement + ": no feature named '"
+                            + requirement.getName() + "'" + suggestions(requirement.getName(), pendingFeatures));
+                } else if (versions.stream().noneMatch(requirement.getVersion()::contains)) {
+                    problems.add(regionToFeatures.getKey() + " " + requirement + ": no version in range, available "
+                            + versions);
+                }
+            }
+        }
+        return problems;
+    }
+
+    private String suggestions(final String name, final Map<String, Set<Version>> pendingFeatures) {
+        final Map<Integer, Set<String>> byDistance = new TreeMap<>();
+        for (String candidate : features.keySet()) {
+            addSuggestion(byDistance, name, candidate);
+        }
+        for (String candidate : pendingFeatures.keySet()) {
+            addSuggestion(byDistance, name, candidate);
+        }
+        final List<String> closest = new ArrayList<>();
+        byDistance.values().forEach(closest::addAll);
+        return closest.isEmpty() ? ""
+                : ", did you mean " + closest.subList(0, Math.min(MAX_SUGGESTIONS, closest.size()));
+    }
+
+    private static void addSuggestion(final Map<Integer, Set<String>> byDistance, final String name,
+                                      final String candidate) {
+        final int distance = distance(name, candidate);
+        if (distance <= MAX_SUGGESTION_DISTANCE) {
+            byDistance.computeIfAbsent(distance, key -> new TreeSet<>()).add(candidate);
+        }
+    }
+
+    /**
+     * @return Levenshtein distance
+     */
+    private static int distance(final String a, final String b) {
+        if (Math.abs(a.length() - b.length()) > MAX_SUGGESTION_DISTANCE) {
+            return Integer.MAX_VALUE;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                final int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static Map<String, Set<Version>> features(final Repository repository) {
+        final Map<String, Set<Version>> provided = new HashMap<>();
+        for (Feature feature : repository.getFeatures()) {
+            final Version version;
+            try {
+                version = Version.parseVersion(feature.getVersion());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            provided.computeIfAbsent(feature.getName(), key -> new TreeSet<>()).add(version);
+        }
+        return provided;
+    }
+}
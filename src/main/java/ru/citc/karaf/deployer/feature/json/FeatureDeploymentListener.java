@@ -5,11 +5,11 @@ import org.apache.karaf.bundle.core.BundleState;
 import org.apache.karaf.bundle.core.BundleStateService;
 import org.apache.karaf.features.DeploymentEvent;
 import org.apache.karaf.features.DeploymentListener;
+import org.apache.karaf.features.FeatureEvent;
+import org.apache.karaf.features.FeaturesListener;
 import org.apache.karaf.features.FeaturesService;
 import org.apache.karaf.features.Repository;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
+import org.apache.karaf.features.RepositoryEvent;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
@@ -18,73 +18,187 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
-final class FeatureDeploymentListener implements ArtifactUrlTransformer, BundleListener, BundleStateService, DeploymentListener {
+final class FeatureDeploymentListener implements ArtifactUrlTransformer, BundleListener, BundleStateService,
+        DeploymentListener, FeaturesListener {
     private static final String DESCRIPTOR_SUFFIX = ".features.json";
-    private static final long DEPLOYMEMNT_START_TIMEOUT = 15_000L;
 
     private final FeaturesService featuresService;
     private final BundleContext bundleContext;
+    private final DeployerConfig config;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Map<Long, BundleState> states = new ConcurrentHashMap<>();
-    private final Object deploymentMutex = new Object();
-    private final Object deploymentStartMutex = new Object();
-    private volatile boolean deploymentStarted;
+    private final DeploymentTracker deploymentTracker = new DeploymentTracker();
+    // Holds first pending event of each bundle, its latest event is in pendingEvents until deployed
+    private final BlockingQueue<BundleEvent> workQueue;
+    private final Map<Long, BundleEvent> pendingEvents = new ConcurrentHashMap<>();
+    private final StateStore stateStore;
+    private final DescriptorCache descriptorCache;
+    private final RepositoryResolver repositoryResolver;
+    private final OwnershipIndex ownership;
+    private final FeatureCatalog catalog = new FeatureCatalog();
+    private final DeployerMetrics metrics;
+    private final DeploymentHistoryImpl history;
+    // Incremented on any Karaf features event, invalidates provisioned snapshot taken before
+    private final AtomicLong karafGeneration = new AtomicLong();
+    private volatile ProvisionedSnapshot provisioned;
+    private BundleEvent stopMarker;
+    private ExecutorService deployer;
+    private ExecutorService prefetcher;
 
-    FeatureDeploymentListener(final FeaturesService featuresService, final BundleContext bundleContext) {
+    FeatureDeploymentListener(final FeaturesService featuresService, final BundleContext bundleContext,
+                              final DeployerConfig config) {
+        this(featuresService, bundleContext, config, UnaryOperator.identity());
+    }
+
+    /**
+     * @param journalChannels applied to each opened state journal channel
+     */
+    FeatureDeploymentListener(final FeaturesService featuresService, final BundleContext bundleContext,
+                              final DeployerConfig config, final UnaryOperator<FileChannel> journalChannels) {
         this.featuresService = featuresService;
         this.bundleContext = bundleContext;
+        this.config = config;
+        this.workQueue = new ArrayBlockingQueue<>(config.getQueueCapacity());
+        this.metrics = new DeployerMetrics(workQueue::size);
+        this.history = new DeploymentHistoryImpl(config.getDiagHistorySize());
+        this.descriptorCache = new DescriptorCache(config.getDescriptorCacheSize());
+        this.repositoryResolver = new RepositoryResolver(featuresService, config.getRepositoryNegativeTtl());
+        this.ownership = new OwnershipIndex(repositoryResolver);
+        this.stateStore = new StateStore(requireNonNull(bundleContext.getDataFile(""), "OSGI file system required"),
+                journalChannels);
     }
 
     void start() {
-        featuresService.registerListener(this);
+        try {
+            stateStore.open();
+        } catch (IOException e) {
+            throw new IllegalStateException("Can't open deployer state store", e);
+        }
+        stopMarker = new BundleEvent(BundleEvent.STOPPING, bundleContext.getBundle());
+        deployer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "json-feature-deployer"));
+        if (config.getPrefetchThreads() > 0) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(config.getPrefetchThreads(),
+                    config.getPrefetchThreads(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "json-feature-prefetch"));
+            executor.allowCoreThreadTimeOut(true);
+            prefetcher = executor;
+        }
+        featuresService.registerListener((DeploymentListener) this);
+        featuresService.registerListener((FeaturesListener) this);
         bundleContext.addBundleListener(this);
-        for (Bundle bundle : bundleContext.getBundles()) {
-            if (bundle.getState() == Bundle.RESOLVED || bundle.getState() == Bundle.STARTING
-                    || bundle.getState() == Bundle.ACTIVE) {
-                bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+        deployer.execute(this::indexOwnership);
+        if (config.isValidateRequirements()) {
+            deployer.execute(this::indexCatalog);
+        }
+        if (config.isReconcileOnStart()) {
+            // Runs before any queued event
+            deployer.execute(this::reconcile);
+        }
+        // Consumer must run before replaying bundles, enqueue blocks once queue is full
+        deployer.execute(this::processQueue);
+        if (!config.isReconcileOnStart()) {
+            for (Bundle bundle : bundleContext.getBundles()) {
+                if (isResolved(bundle)) {
+                    bundleChanged(new BundleEvent(BundleEvent.RESOLVED, bundle));
+                }
             }
         }
     }
 
     void stop() {
         bundleContext.removeBundleListener(this);
-        featuresService.unregisterListener(this);
+        // Already queued events are deployed before worker exits
+        enqueue(stopMarker);
+        deployer.shutdown();
+        try {
+            if (!deployer.awaitTermination(config.getShutdownTimeout(), TimeUnit.MILLISECONDS)) {
+                logger.warn("Deployer not stopped in {} ms, {} bundle events dropped", config.getShutdownTimeout(),
+                        workQueue.size());
+                deployer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            deployer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+        featuresService.unregisterListener((FeaturesListener) this);
+        featuresService.unregisterListener((DeploymentListener) this);
+        try {
+            stateStore.close();
+        } catch (IOException e) {
+            logger.warn("Can't close deployer state store", e);
+        }
+    }
+
+    DeployerMetrics getMetrics() {
+        return metrics;
+    }
+
+    DeploymentHistory getHistory() {
+        return history;
     }
 
     @Override
     public void deploymentEvent(final DeploymentEvent event) {
         logger.debug("Feature deployment event: {}", event);
-        if (event == DeploymentEvent.DEPLOYMENT_FINISHED) {
-            synchronized (deploymentMutex) {
-                deploymentStarted = false;
-                deploymentMutex.notifyAll();
-            }
-        } else if (event == DeploymentEvent.DEPLOYMENT_STARTED) {
-            synchronized (deploymentStartMutex) {
-                deploymentStarted = true;
-                deploymentStartMutex.notifyAll();
+        karafGeneration.incrementAndGet();
+        deploymentTracker.deploymentEvent(event);
+    }
+
+    @Override
+    public void featureEvent(final FeatureEvent event) {
+        karafGeneration.incrementAndGet();
+    }
+
+    @Override
+    public void repositoryEvent(final RepositoryEvent event) {
+        karafGeneration.incrementAndGet();
+        repositoryResolver.invalidate();
+        if (config.isValidateRequirements()) {
+            if (event.getType() == RepositoryEvent.EventType.RepositoryAdded) {
+                catalog.add(event.getRepository());
+            } else if (event.getType() == RepositoryEvent.EventType.RepositoryRemoved) {
+                catalog.remove(event.getRepository().getURI());
             }
         }
     }
@@ -100,120 +214,629 @@ final class FeatureDeploymentListener implements ArtifactUrlTransformer, BundleL
 
     public void bundleChanged(final BundleEvent event) {
         final Bundle bundle = event.getBundle();
-        final long bundleId = bundle.getBundleId();
+        if (event.getType() == BundleEvent.UPDATED || event.getType() == BundleEvent.UNRESOLVED
+                || event.getType() == BundleEvent.UNINSTALLED) {
+            descriptorCache.evict(bundle.getBundleId());
+        }
         if (event.getType() != BundleEvent.RESOLVED && event.getType() != BundleEvent.UNINSTALLED
-                || bundleId == bundleContext.getBundle().getBundleId()) {
+                || bundle.getBundleId() == bundleContext.getBundle().getBundleId()) {
             return;
         }
+        metrics.eventQueued();
+        // Only the latest target state of bundle matters, later event replaces one still waiting
+        if (pendingEvents.put(bundle.getBundleId(), event) == null) {
+            enqueue(event);
+        } else {
+            metrics.eventMerged();
+        }
+    }
 
-        synchronized (deploymentMutex) {
-            final File storedDescriptorFile = requireNonNull(
-                    bundleContext.getDataFile("bundle_" + bundleId + DESCRIPTOR_SUFFIX),
-                    "OSGI file system required");
-            final FeaturesDescriptor storedDescriptor;
-            if (storedDescriptorFile.exists()) {
-                try (Reader reader = new InputStreamReader(new FileInputStream(storedDescriptorFile), StandardCharsets.UTF_8)) {
-                    final JSONParser parser = new JSONParser();
-                    storedDescriptor = FeaturesDescriptor.fromJson((JSONObject) parser.parse(reader));
-                } catch (IOException | ParseException ioe) {
-                    logger.error("Can't read previous state file {}. Stop processing.", storedDescriptorFile, ioe);
-                    return;
-                }
-            } else {
-                storedDescriptor = null;
+    private void enqueue(final BundleEvent event) {
+        if (!workQueue.offer(event)) {
+            logger.warn("Deployment queue is full ({} events), waiting to enqueue {}", workQueue.size(), event);
+            try {
+                workQueue.put(event);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted, bundle event {} dropped", event);
+                Thread.currentThread().interrupt();
             }
-            final Map<String, Set<String>> featureReqs;
-            final Set<URI> requiredReposUris;
+        }
+    }
+
+    /**
+     * Deployer worker loop: takes queued events, collects them for batch window and deploys.
+     * Exits after deploying everything queued before {@link #stopMarker}.
+     */
+    private void processQueue() {
+        final List<BundleEvent> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
             try {
-                requiredReposUris = Arrays.stream(featuresService.listRequiredRepositories())
-                        .map(Repository::getURI)
-                        .collect(Collectors.toCollection(LinkedHashSet::new));
-                featureReqs = featuresService.listRequirements();
-            } catch (Exception e) {
-                logger.error("Can't access current Karaf Features state. Stop processing.", e);
+                BundleEvent event = workQueue.take();
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getBatchWindow());
+                while (event != null) {
+                    if (event == stopMarker) {
+                        stopping = true;
+                        break;
+                    }
+                    batch.add(event);
+                    final long remaining = deadline - System.nanoTime();
+                    event = remaining > 0 ? workQueue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                }
+            } catch (InterruptedException e) {
+                logger.warn("Deployer interrupted, {} bundle events dropped", batch.size() + workQueue.size());
                 return;
             }
-            boolean hasChanges = false;
-            if (storedDescriptor != null) {
-                final Map<String, Set<String>> reqsToRemove = storedDescriptor.getRequirements();
-                for (Map.Entry<String, Set<String>> featuresByRegion : featureReqs.entrySet()) {
-                    final String region = featuresByRegion.getKey();
-                    if (reqsToRemove.containsKey(region)) {
-                        hasChanges |= featuresByRegion.getValue().removeAll(reqsToRemove.get(region));
-                    }
+            if (!batch.isEmpty()) {
+                try {
+                    deployEvents(batch);
+                } catch (RuntimeException e) {
+                    logger.error("Can't deploy batch of {} bundle events.", batch.size(), e);
                 }
-                for (String repository : storedDescriptor.getRepositories()) {
-                    final URI repoUri = toRepoUri(repository);
-                    if (repoUri != null) {
-                        hasChanges |= requiredReposUris.remove(repoUri);
-                    }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Builds ownership index from persisted states. Runs on deployer thread since repository names are resolved by
+     * Karaf.
+     */
+    private void indexOwnership() {
+        for (Long bundleId : stateStore.bundleIds()) {
+            ownership.apply(bundleId, DescriptorDelta.of(null, stateStore.get(bundleId)));
+        }
+    }
+
+    private void indexCatalog() {
+        try {
+            catalog.reset(featuresService.listRepositories());
+        } catch (Exception e) {
+            logger.warn("Can't index Karaf features, requirements are not validated", e);
+        }
+    }
+
+    /**
+     * Brings Karaf requirements in line with all installed descriptor bundles by at most one deployment:
+     * resolved bundles apply their descriptors, stored states of bundles gone while we were stopped are removed.
+     */
+    private void reconcile() {
+        final long selfId = bundleContext.getBundle().getBundleId();
+        final Set<Long> installedIds = new HashSet<>();
+        final List<BundleDeployment> deployments = new ArrayList<>();
+        for (Bundle bundle : bundleContext.getBundles()) {
+            installedIds.add(bundle.getBundleId());
+            if (bundle.getBundleId() != selfId && isResolved(bundle)) {
+                final BundleDeployment deployment = prepare(bundle.getBundleId(), bundle, true);
+                if (deployment != null) {
+                    deployments.add(deployment);
                 }
             }
-            final FeaturesDescriptor actualDescriptor;
-            if (event.getType() == BundleEvent.RESOLVED) {
-                final URL descriptorUrl = bundle.getResource(JsonFeatureURLHandler.JSON_FEATURE_DESCRIPTOR_PATH);
-                if (descriptorUrl == null) {
-                    actualDescriptor = null;
-                    logger.debug("JSON features descriptor not found in: {}", bundle);
-                } else {
-                    try (Reader reader = new InputStreamReader(descriptorUrl.openStream(), StandardCharsets.UTF_8)) {
-                        final JSONParser parser = new JSONParser();
-                        actualDescriptor = FeaturesDescriptor.fromJson((JSONObject) parser.parse(reader));
-                        for (String repository : actualDescriptor.getRepositories()) {
-                            final URI reposUri = toRepoUri(repository);
-                            if (reposUri == null) {
-                                logger.warn("Can't resolve repo spec {}", reposUri);
-                            } else {
-                                hasChanges |= requiredReposUris.add(reposUri);
-                            }
-                        }
-                        for (Map.Entry<String, Set<String>> newFeatureToRegion : actualDescriptor.getRequirements().entrySet()) {
-                            final Set<String> regionFeatures = featureReqs.computeIfAbsent(newFeatureToRegion.getKey(), key -> new LinkedHashSet<>());
-                            hasChanges |= regionFeatures.addAll(newFeatureToRegion.getValue());
-                        }
-                    } catch (IOException | ParseException e) {
-                        logger.error("Can't read JSON feature descriptor: {}", descriptorUrl, e);
-                        return;
-                    }
+        }
+        for (long bundleId : stateStore.bundleIds()) {
+            if (!installedIds.contains(bundleId)) {
+                final BundleDeployment deployment = prepare(bundleId, null, false);
+                if (deployment != null) {
+                    deployments.add(deployment);
                 }
+            }
+        }
+        logger.info("Reconcile {} descriptor bundles", deployments.size());
+        try {
+            final DeployerSnapshot snapshot = warmStartSnapshot(deployments);
+            if (snapshot == null) {
+                deploy(deployments);
             } else {
-                states.remove(bundleId);
-                actualDescriptor = null;
+                repositoryResolver.seed(snapshot.getRepositoryNames());
+                deployBatch(deployments, snapshot);
             }
+        } catch (RuntimeException e) {
+            logger.error("Can't reconcile descriptor bundles.", e);
+        }
+    }
 
-            try {
-                if (hasChanges) {
-                    logger.info("Request deployment for: {}", bundle);
-                    states.put(bundleId, BundleState.Starting);
-                    featuresService.updateReposAndRequirements(requiredReposUris, featureReqs,
-                            EnumSet.noneOf(FeaturesService.Option.class));
+    /**
+     * @return configured snapshot if it was taken with the same descriptors, {@code null} otherwise
+     */
+    private DeployerSnapshot warmStartSnapshot(final List<BundleDeployment> deployments) {
+        if (config.getWarmStartSnapshot().isEmpty()) {
+            return null;
+        }
+        final Path file = Paths.get(config.getWarmStartSnapshot());
+        if (!Files.exists(file)) {
+            logger.info("No warm start snapshot {}", file);
+            return null;
+        }
+        final Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (BundleDeployment deployment : deployments) {
+            if (deployment.actualDescriptor == null || deployment.storedDescriptor != null
+                    && !deployment.storedDescriptor.fingerprint().equals(deployment.actualDescriptor.fingerprint())) {
+                logger.info("Warm start snapshot skipped, {} changed since last start", deployment);
+                return null;
+            }
+            fingerprints.put(DeployerSnapshot.bundleKey(deployment.bundle), deployment.actualDescriptor.fingerprint());
+        }
+        try {
+            final DeployerSnapshot snapshot = DeployerSnapshot.read(file);
+            if (!snapshot.matches(fingerprints)) {
+                logger.info("Warm start snapshot {} skipped, descriptors differ", file);
+                return null;
+            }
+            logger.info("Apply warm start snapshot {}", file);
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Can't read warm start snapshot {}", file, e);
+            return null;
+        }
+    }
+
+    void exportSnapshot(final File file) throws IOException {
+        final DeployerSnapshot snapshot = new DeployerSnapshot();
+        for (Long bundleId : stateStore.bundleIds()) {
+            final Bundle bundle = bundleContext.getBundle(bundleId);
+            final FeaturesDescriptor descriptor = stateStore.get(bundleId);
+            if (bundle != null && descriptor != null) {
+                snapshot.add(bundle, descriptor, repositoryResolver);
+            }
+        }
+        snapshot.write(file.toPath());
+        logger.info("Deployer snapshot exported to {}", file);
+    }
+
+    private void deployEvents(final List<BundleEvent> events) {
+        // Events are compacted per bundle on enqueue, the latest pending one is deployed
+        final Map<Long, BundleDeployment> deployments = new LinkedHashMap<>();
+        for (BundleEvent queued : events) {
+            final Bundle bundle = queued.getBundle();
+            final BundleEvent latest = pendingEvents.remove(bundle.getBundleId());
+            final BundleEvent event = latest == null ? queued : latest;
+            final BundleDeployment deployment = prepare(bundle.getBundleId(), bundle,
+                    event.getType() == BundleEvent.RESOLVED);
+            deployments.remove(bundle.getBundleId());
+            if (deployment != null) {
+                deployments.put(deployment.bundleId, deployment);
+            }
+        }
+        deploy(deployments.values());
+    }
+
+    private void deploy(final Collection<BundleDeployment> requested) {
+        final List<BundleDeployment> deployments = new ArrayList<>(requested.size());
+        for (BundleDeployment deployment : requested) {
+            if (deployment.isProvisioned()) {
+                logger.debug("Descriptor of {} is unchanged and provisioned", deployment);
+                states.put(deployment.bundleId, BundleState.Active);
+            } else {
+                deployments.add(deployment);
+            }
+        }
+        metrics.skipped(requested.size() - deployments.size());
+        // Each priority is deployed on its own, so higher one is ready regardless of lower ones count. Only events
+        // of one batch are ordered, the queue stays FIFO since priority is known only once descriptor is read
+        final Map<Integer, List<BundleDeployment>> byPriority = new TreeMap<>(Comparator.reverseOrder());
+        for (BundleDeployment deployment : deployments) {
+            byPriority.computeIfAbsent(deployment.priority(), key -> new ArrayList<>()).add(deployment);
+        }
+        if (byPriority.size() > 1) {
+            logger.debug("Deploy {} priorities in order {}", byPriority.size(), byPriority.keySet());
+        }
+        for (List<BundleDeployment> priorityDeployments : byPriority.values()) {
+            deployBatch(priorityDeployments, null);
+        }
+    }
+
+    /**
+     * @param snapshot applied instead of per-bundle diff, {@code null} if none
+     */
+    private void deployBatch(final List<BundleDeployment> deployments, final DeployerSnapshot snapshot) {
+        final long[] batchTimings = newTimings();
+        long phaseStart = System.nanoTime();
+        final Map<String, Set<String>> karafReqs;
+        final Set<URI> karafReposUris;
+        long generation = karafGeneration.get();
+        try {
+            karafReposUris = Arrays.stream(featuresService.listRequiredRepositories())
+                    .map(Repository::getURI)
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            karafReqs = featuresService.listRequirements();
+        } catch (Exception e) {
+            logger.error("Can't access current Karaf Features state. Stop processing.", e);
+            return;
+        }
+        final KarafRequirements karafFeatureReqs = KarafRequirements.of(karafReqs);
+        KarafRequirements featureReqs = KarafRequirements.of(karafReqs);
+        Set<URI> requiredReposUris = new LinkedHashSet<>(karafReposUris);
+        if (snapshot == null) {
+            applyAll(deployments, featureReqs, requiredReposUris);
+        } else {
+            snapshot.applyTo(featureReqs, requiredReposUris);
+        }
+        boolean hasChanges = !requiredReposUris.equals(karafReposUris) || !featureReqs.equals(karafFeatureReqs);
+        phaseStart = endPhase(DeployerMetrics.Phase.DIFF, phaseStart, batchTimings);
+
+        final List<BundleDeployment> rejected = new ArrayList<>();
+        final Map<URI, Repository> prefetched = new HashMap<>();
+        if (hasChanges && prefetcher != null) {
+            rejected.addAll(prefetch(deployments, requiredReposUris, karafReposUris, prefetched));
+            phaseStart = endPhase(DeployerMetrics.Phase.PREFETCH, phaseStart, batchTimings);
+        }
+        if (hasChanges && config.isValidateRequirements()) {
+            rejected.addAll(validate(deployments, rejected, requiredReposUris, prefetched));
+            phaseStart = endPhase(DeployerMetrics.Phase.VALIDATE, phaseStart, batchTimings);
+        }
+        if (!rejected.isEmpty()) {
+            deployments.removeAll(rejected);
+            recordTimelines(rejected, batchTimings);
+            featureReqs = KarafRequirements.of(karafReqs);
+            requiredReposUris = new LinkedHashSet<>(karafReposUris);
+            applyAll(deployments, featureReqs, requiredReposUris);
+            hasChanges = !requiredReposUris.equals(karafReposUris) || !featureReqs.equals(karafFeatureReqs);
+        }
+
+        if (hasChanges && config.isPreflight()) {
+            final List<BundleDeployment> simulationRejected = preflight(deployments, requiredReposUris, featureReqs,
+                    karafReposUris, karafReqs);
+            phaseStart = endPhase(DeployerMetrics.Phase.PREFLIGHT, phaseStart, batchTimings);
+            if (!simulationRejected.isEmpty()) {
+                deployments.removeAll(simulationRejected);
+                recordTimelines(simulationRejected, batchTimings);
+                featureReqs = KarafRequirements.of(karafReqs);
+                requiredReposUris = new LinkedHashSet<>(karafReposUris);
+                applyAll(deployments, featureReqs, requiredReposUris);
+                hasChanges = !requiredReposUris.equals(karafReposUris) || !featureReqs.equals(karafFeatureReqs);
+            }
+        }
+
+        try {
+            if (hasChanges) {
+                logger.info("Request deployment for: {}", deployments);
+                for (BundleDeployment deployment : deployments) {
+                    if (deployment.actualDescriptor != null) {
+                        states.put(deployment.bundleId, BundleState.Starting);
+                    }
+                }
+                final EnumSet<FeaturesService.Option> options = options(deployments);
+                if (!options.isEmpty()) {
+                    logger.info("Deployment of {} suppresses {}", deployments, options);
+                }
+                try (DeploymentTracker.Deployment tracked = deploymentTracker.begin()) {
+                    featuresService.updateReposAndRequirements(requiredReposUris, featureReqs.toKaraf(), options);
+                    phaseStart = endPhase(DeployerMetrics.Phase.UPDATE_REQUIREMENTS, phaseStart, batchTimings);
                     //TODO Karaf 4.2.5 not throw exception on unsatisfied requirements nor start deployment process
-                    synchronized (deploymentStartMutex) {
-                        deploymentStartMutex.wait(DEPLOYMEMNT_START_TIMEOUT);
-                        if (deploymentStarted) {
-                            logger.debug("Deployment started for {}", bundle);
-                            deploymentMutex.wait();
-                        }
+                    final boolean started = tracked.awaitStart(config.getDeploymentStartTimeout());
+                    phaseStart = endPhase(DeployerMetrics.Phase.WAIT_START, phaseStart, batchTimings);
+                    if (started) {
+                        tracked.awaitFinish(config.getDeploymentTimeout());
+                        phaseStart = endPhase(DeployerMetrics.Phase.WAIT_FINISH, phaseStart, batchTimings);
+                        logger.debug("Deployment finished for {}", deployments);
+                    } else {
+                        logger.debug("Deployment not started for {}", deployments);
                     }
-                    // Because Karaf does not throw any exception on resolution fail (why?) we needs to check actual
-                    // requirements
-                    if (actualDescriptor != null) {
-                        actualDescriptor.ensureSatisfied(featuresService.listRequirements());
-                        states.put(bundleId, BundleState.Active);
-                        logger.info("Feature deployment finished for: {}", bundle);
+                }
+            } else {
+                logger.debug("No deployment required for: {}", deployments);
+                metrics.skipped(deployments.size());
+            }
+        } catch (Exception e) {
+            logger.error("Can't apply requirements for {}.", deployments, e);
+            provisioned = null;
+            for (BundleDeployment deployment : deployments) {
+                if (deployment.actualDescriptor != null) {
+                    states.put(deployment.bundleId, BundleState.Failure);
+                    deployment.error = e.toString();
+                    metrics.failed();
+                }
+            }
+            recordTimelines(deployments, batchTimings);
+            return;
+        }
+        // Because Karaf does not throw any exception on resolution fail (why?) we needs to check actual
+        // requirements
+        final RequirementIndex actualReqs;
+        if (hasChanges) {
+            generation = karafGeneration.get();
+            actualReqs = RequirementIndex.of(featuresService.listRequirements());
+            provisioned = new ProvisionedSnapshot(generation, actualReqs);
+        } else {
+            actualReqs = null;
+            provisioned = new ProvisionedSnapshot(generation, RequirementIndex.of(karafReqs));
+        }
+        final Map<Long, FeaturesDescriptor> appliedStates = new LinkedHashMap<>();
+        for (BundleDeployment deployment : deployments) {
+            try {
+                if (deployment.actualDescriptor != null && actualReqs != null) {
+                    deployment.unsatisfied = deployment.actualDescriptor.unsatisfied(actualReqs);
+                    if (!deployment.unsatisfied.isEmpty()) {
+                        throw new IllegalStateException("Requirements no provisioned: " + deployment.unsatisfied);
                     }
-
-                } else {
-                    logger.debug("No deployment required for: {}", bundle);
+                    logger.info("Feature deployment finished for: {}", deployment);
                 }
-                saveState(storedDescriptorFile, actualDescriptor);
+                appliedStates.put(deployment.bundleId, deployment.actualDescriptor);
             } catch (Exception e) {
-                logger.error("Can't apply requirements for {}.", bundle, e);
-                if (event.getType() == BundleEvent.RESOLVED) {
-                    states.put(bundleId, BundleState.Failure);
+                logger.error("Can't apply requirements for {}.", deployment, e);
+                states.put(deployment.bundleId, BundleState.Failure);
+                deployment.error = e.getMessage();
+                metrics.failed();
+            }
+        }
+        phaseStart = endPhase(DeployerMetrics.Phase.ENSURE_SATISFIED, phaseStart, batchTimings);
+        try {
+            stateStore.commit(appliedStates);
+            for (BundleDeployment deployment : deployments) {
+                if (appliedStates.containsKey(deployment.bundleId)) {
+                    ownership.apply(deployment.bundleId, deployment.changes());
+                }
+            }
+            // Published after commit, so whoever sees Active also sees its stored state
+            for (Map.Entry<Long, FeaturesDescriptor> applied : appliedStates.entrySet()) {
+                if (applied.getValue() != null) {
+                    states.put(applied.getKey(), BundleState.Active);
+                }
+            }
+        } catch (IOException e) {
+            // Stored states and ownership stay as before, next event of the bundle or reconcile applies it again
+            logger.error("Can't save new state of {}", appliedStates.keySet(), e);
+            for (BundleDeployment deployment : deployments) {
+                if (deployment.actualDescriptor != null && appliedStates.containsKey(deployment.bundleId)) {
+                    states.put(deployment.bundleId, BundleState.Failure);
+                    deployment.error = "Can't save state: " + e;
+                    metrics.failed();
+                }
+            }
+        }
+        endPhase(DeployerMetrics.Phase.SAVE_STATE, phaseStart, batchTimings);
+        recordTimelines(deployments, batchTimings);
+    }
+
+    /**
+     * Loads repositories not yet required by Karaf in parallel, so deployment finds them downloaded and broken ones
+     * fail before it.
+     *
+     * @return deployments rejected due to repository load failure, marked as {@link BundleState#Failure}
+     */
+    private List<BundleDeployment> prefetch(final List<BundleDeployment> deployments,
+                                            final Set<URI> requiredReposUris, final Set<URI> karafReposUris,
+                                            final Map<URI, Repository> prefetched) {
+        final Map<URI, Future<Repository>> loads = new LinkedHashMap<>();
+        for (URI repoUri : requiredReposUris) {
+            if (!karafReposUris.contains(repoUri)) {
+                loads.put(repoUri, prefetcher.submit(() -> featuresService.createRepository(repoUri)));
+            }
+        }
+        final Map<URI, Exception> failures = new HashMap<>();
+        for (Map.Entry<URI, Future<Repository>> load : loads.entrySet()) {
+            try {
+                prefetched.put(load.getKey(), load.getValue().get());
+            } catch (ExecutionException e) {
+                failures.put(load.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (InterruptedException e) {
+                loads.values().forEach(pending -> pending.cancel(true));
+                Thread.currentThread().interrupt();
+                return Collections.emptyList();
+            }
+        }
+        logger.debug("Prefetched {} repositories, {} failed", loads.size(), failures.size());
+        final List<BundleDeployment> rejected = new ArrayList<>();
+        if (!failures.isEmpty()) {
+            for (BundleDeployment deployment : deployments) {
+                final Exception failure = deployment.repositoryFailure(failures);
+                if (failure != null) {
+                    reject(deployment, "repository prefetch", failure);
+                    rejected.add(deployment);
                 }
             }
         }
+        return rejected;
+    }
+
+    /**
+     * Checks requirements added by deployments against feature catalog. Skipped when some required repository is
+     * neither indexed nor prefetched, as its features are unknown.
+     *
+     * @param skipped deployments already rejected
+     * @return deployments requiring unknown features, marked as {@link BundleState#Failure}
+     */
+    private List<BundleDeployment> validate(final List<BundleDeployment> deployments,
+                                            final List<BundleDeployment> skipped, final Set<URI> requiredReposUris,
+                                            final Map<URI, Repository> prefetched) {
+        if (!catalog.isIndexed()) {
+            return Collections.emptyList();
+        }
+        final Set<URI> required = new HashSet<>(requiredReposUris);
+        for (Repository repository : prefetched.values()) {
+            required.addAll(Arrays.asList(repository.getRepositories()));
+        }
+        for (URI repoUri : required) {
+            if (!prefetched.containsKey(repoUri) && !catalog.contains(repoUri)) {
+                logger.debug("Repository {} is not indexed, requirements not validated", repoUri);
+                return Collections.emptyList();
+            }
+        }
+        final List<BundleDeployment> rejected = new ArrayList<>();
+        for (BundleDeployment deployment : deployments) {
+            if (deployment.actualDescriptor != null && !skipped.contains(deployment)) {
+                final List<String> problems = catalog.check(deployment.changes().getAddedRequirements(),
+                        prefetched.values());
+                if (!problems.isEmpty()) {
+                    reject(deployment, "validation", new IllegalArgumentException(
+                            "Unknown features required: " + String.join("; ", problems)));
+                    rejected.add(deployment);
+                }
+            }
+        }
+        return rejected;
+    }
+
+    /**
+     * Simulates requirements update. On failure simulates each bundle's deployment alone and rejects ones failing,
+     * or all when only their combination fails. Karaf saves repositories even on simulation, so they are put back
+     * when anything is rejected.
+     *
+     * @return rejected deployments, marked as {@link BundleState#Failure}
+     */
+    private List<BundleDeployment> preflight(final List<BundleDeployment> deployments,
+                                             final Set<URI> requiredReposUris, final KarafRequirements featureReqs,
+                                             final Set<URI> karafReposUris, final Map<String, Set<String>> karafReqs) {
+        final Exception failure = simulate(requiredReposUris, featureReqs);
+        if (failure == null) {
+            return Collections.emptyList();
+        }
+        logger.warn("Simulation failed for {}, check bundles one by one: {}", deployments, failure.toString());
+        final List<BundleDeployment> rejected = new ArrayList<>();
+        for (BundleDeployment deployment : deployments) {
+            if (deployment.actualDescriptor != null) {
+                final KarafRequirements bundleReqs = KarafRequirements.of(karafReqs);
+                final Set<URI> bundleReposUris = new LinkedHashSet<>(karafReposUris);
+                applyAll(Collections.singletonList(deployment), bundleReqs, bundleReposUris);
+                final Exception bundleFailure = simulate(bundleReposUris, bundleReqs);
+                if (bundleFailure != null) {
+                    reject(deployment, "simulation", bundleFailure);
+                    rejected.add(deployment);
+                }
+            }
+        }
+        if (rejected.isEmpty()) {
+            for (BundleDeployment deployment : deployments) {
+                if (deployment.actualDescriptor != null) {
+                    reject(deployment, "simulation", failure);
+                    rejected.add(deployment);
+                }
+            }
+        }
+        restoreRepositories(karafReposUris, karafReqs);
+        return rejected;
+    }
+
+    /**
+     * Puts back repositories Karaf had before simulation, without provisioning anything.
+     */
+    private void restoreRepositories(final Set<URI> karafReposUris, final Map<String, Set<String>> karafReqs) {
+        try {
+            featuresService.updateReposAndRequirements(karafReposUris, karafReqs,
+                    EnumSet.of(FeaturesService.Option.Simulate));
+        } catch (Exception e) {
+            logger.warn("Can't restore Karaf repositories after simulation", e);
+        }
+    }
+
+    /**
+     * @return simulation failure or {@code null} if requirements can be deployed
+     */
+    private Exception simulate(final Set<URI> requiredReposUris, final KarafRequirements featureReqs) {
+        try {
+            featuresService.updateReposAndRequirements(requiredReposUris, featureReqs.toKaraf(),
+                    EnumSet.of(FeaturesService.Option.Simulate));
+            return null;
+        } catch (Exception e) {
+            return e;
+        }
+    }
+
+    private void reject(final BundleDeployment deployment, final String stage, final Exception failure) {
+        logger.error("Descriptor of {} rejected by {}.", deployment, stage, failure);
+        states.put(deployment.bundleId, BundleState.Failure);
+        deployment.error = failure.toString();
+        metrics.failed();
+    }
+
+    /**
+     * Options every deployment agrees on, so no descriptor loses refresh or start it did not opt out of. Each
+     * deployment records options it was deployed with.
+     */
+    private static EnumSet<FeaturesService.Option> options(final List<BundleDeployment> deployments) {
+        final EnumSet<FeaturesService.Option> options = EnumSet.copyOf(FeaturesDescriptor.SUPPORTED_OPTIONS);
+        for (BundleDeployment deployment : deployments) {
+            options.retainAll(deployment.options());
+        }
+        for (BundleDeployment deployment : deployments) {
+            deployment.suppressed = options;
+        }
+        return options;
+    }
+
+    /**
+     * Replaces stored descriptors of deployments with actual ones. Requirements and repositories still owned by
+     * bundles out of deployments stay in place.
+     */
+    private void applyAll(final List<BundleDeployment> deployments, final KarafRequirements featureReqs,
+                          final Set<URI> requiredReposUris) {
+        final Set<Long> bundleIds = new HashSet<>();
+        for (BundleDeployment deployment : deployments) {
+            bundleIds.add(deployment.bundleId);
+        }
+        for (BundleDeployment deployment : deployments) {
+            deployment.unapply(featureReqs, requiredReposUris, bundleIds);
+        }
+        for (BundleDeployment deployment : deployments) {
+            deployment.apply(featureReqs, requiredReposUris);
+        }
+    }
+
+    /**
+     * Records phase duration to metrics and timings.
+     *
+     * @return phase end, start of the next phase
+     */
+    private long endPhase(final DeployerMetrics.Phase phase, final long startNanos, final long[] timings) {
+        final long now = System.nanoTime();
+        metrics.record(phase, now - startNanos);
+        timings[phase.ordinal()] = now - startNanos;
+        return now;
+    }
+
+    private void recordTimelines(final List<BundleDeployment> deployments, final long[] batchTimings) {
+        for (BundleDeployment deployment : deployments) {
+            // Nobody asks for diagnostics of uninstalled bundle
+            if (deployment.bundle != null && deployment.bundle.getState() != Bundle.UNINSTALLED) {
+                history.record(deployment.timeline(batchTimings));
+            }
+        }
+    }
+
+    private static long[] newTimings() {
+        final long[] timings = new long[DeployerMetrics.Phase.values().length];
+        Arrays.fill(timings, DeploymentTimeline.NOT_RUN);
+        return timings;
+    }
+
+    private BundleDeployment prepare(final long bundleId, final Bundle bundle, final boolean resolved) {
+        final long startedAt = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        final long[] timings = newTimings();
+        final FeaturesDescriptor storedDescriptor = stateStore.get(bundleId);
+        long phaseStart = endPhase(DeployerMetrics.Phase.STATE_READ, startNanos, timings);
+        final FeaturesDescriptor actualDescriptor;
+        if (resolved) {
+            try {
+                actualDescriptor = descriptorCache.get(bundle);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Can't read JSON feature descriptor of {}", bundle, e);
+                states.put(bundleId, BundleState.Failure);
+                metrics.failed();
+                history.record(new DeploymentTimeline(bundleId, bundle.toString(), startedAt, timings,
+                        System.nanoTime() - startNanos, Collections.emptyList(), Collections.emptySet(),
+                        BundleState.Failure, e.getMessage()));
+                return null;
+            }
+            endPhase(DeployerMetrics.Phase.DESCRIPTOR_PARSE, phaseStart, timings);
+            if (actualDescriptor == null) {
+                logger.trace("JSON features descriptor not found in: {}", bundle);
+            }
+        } else {
+            states.remove(bundleId);
+            history.remove(bundleId);
+            actualDescriptor = null;
+        }
+        if (storedDescriptor == null && actualDescriptor == null) {
+            return null;
+        }
+        return new BundleDeployment(bundleId, bundle, storedDescriptor, actualDescriptor, startedAt, startNanos,
+                timings);
+    }
+
+    private static boolean isResolved(final Bundle bundle) {
+        return bundle.getState() == Bundle.RESOLVED || bundle.getState() == Bundle.STARTING
+                || bundle.getState() == Bundle.ACTIVE;
     }
 
     public boolean canHandle(final File artifact) {
@@ -227,7 +850,11 @@ final class FeatureDeploymentListener implements ArtifactUrlTransformer, BundleL
 
     @Override
     public String getDiag(final Bundle bundle) {
-        return "";
+        final StringBuilder diag = new StringBuilder();
+        for (DeploymentTimeline timeline : history.get(bundle.getBundleId())) {
+            timeline.render(diag);
+        }
+        return diag.toString();
     }
 
     @Override
@@ -235,38 +862,168 @@ final class FeatureDeploymentListener implements ArtifactUrlTransformer, BundleL
         return states.getOrDefault(bundle.getBundleId(), BundleState.Unknown);
     }
 
-    private void saveState(final File descriptorFile, final FeaturesDescriptor actualDescriptor) {
-        if (actualDescriptor == null) {
-            if (descriptorFile.exists() && !descriptorFile.delete()) {
-                logger.warn("Can't delete old state descriptor file {}", descriptorFile);
+    /**
+     * Single bundle's part of a (possibly batched) deployment.
+     */
+    private final class BundleDeployment {
+        private final Bundle bundle;
+        private final long bundleId;
+        private final FeaturesDescriptor storedDescriptor;
+        private final FeaturesDescriptor actualDescriptor;
+        private final long startedAt;
+        private final long startNanos;
+        private final long[] timings;
+        private Set<FeatureRequirement> unsatisfied = Collections.emptySet();
+        private Set<FeaturesService.Option> suppressed = Collections.emptySet();
+        private String error;
+        private DescriptorDelta changes;
+
+        private BundleDeployment(final long bundleId, final Bundle bundle, final FeaturesDescriptor storedDescriptor,
+                                 final FeaturesDescriptor actualDescriptor, final long startedAt,
+                                 final long startNanos, final long[] timings) {
+            this.bundle = bundle;
+            this.bundleId = bundleId;
+            this.storedDescriptor = storedDescriptor;
+            this.actualDescriptor = actualDescriptor;
+            this.startedAt = startedAt;
+            this.startNanos = startNanos;
+            this.timings = timings;
+        }
+
+        /**
+         * @return {@code true} if applied descriptor has the same content and Karaf still holds its requirements,
+         * checked against snapshot without querying Karaf
+         */
+        private boolean isProvisioned() {
+            if (actualDescriptor == null || storedDescriptor == null) {
+                return false;
             }
-        } else {
-            try (Writer writer = new OutputStreamWriter(new FileOutputStream(descriptorFile, false),
-                    StandardCharsets.UTF_8)) {
-                actualDescriptor.toJson().writeJSONString(writer);
-            } catch (IOException e) {
-                logger.warn("Can't save new state descriptor {}", actualDescriptor, e);
+            if (actualDescriptor != storedDescriptor
+                    && !actualDescriptor.fingerprint().equals(stateStore.fingerprint(bundleId))) {
+                return false;
             }
+            final ProvisionedSnapshot snapshot = provisioned;
+            return snapshot != null && snapshot.generation == karafGeneration.get()
+                    && actualDescriptor.isSatisfied(snapshot.requirements);
         }
-    }
 
-    private URI toRepoUri(final String repositorySpec) {
-        URI repoUri;
-        try {
-            repoUri = new URI(repositorySpec);
-            if (!repoUri.isAbsolute()) {
-                repoUri = null;
+        /**
+         * @return load failure of first repository of actual descriptor failed to load, {@code null} if none
+         */
+        private Exception repositoryFailure(final Map<URI, Exception> failures) {
+            if (actualDescriptor != null) {
+                for (String repository : actualDescriptor.getRepositories()) {
+                    final Exception failure = failures.get(repositoryResolver.resolve(repository));
+                    if (failure != null) {
+                        return new IllegalStateException("Can't load repository " + repository, failure);
+                    }
+                }
             }
-        } catch (URISyntaxException e) {
-            repoUri = null;
+            return null;
         }
-        if (repoUri == null) {
-            try {
-                repoUri = featuresService.getRepositoryUriFor(repositorySpec, null);
-            } catch (Exception e) {
-                logger.warn("Can't get repo by name {}", repositorySpec, e);
+
+        /**
+         * @return options of actual descriptor, or of applied one when descriptor is removed
+         */
+        private Set<FeaturesService.Option> options() {
+            if (actualDescriptor != null) {
+                return actualDescriptor.getOptions();
+            }
+            return storedDescriptor == null ? Collections.emptySet() : storedDescriptor.getOptions();
+        }
+
+        /**
+         * @return priority of actual descriptor, or of applied one when descriptor is removed
+         */
+        private int priority() {
+            if (actualDescriptor != null) {
+                return actualDescriptor.getPriority();
             }
+            return storedDescriptor == null ? 0 : storedDescriptor.getPriority();
+        }
+
+        /**
+         * @return difference between applied and actual descriptors, computed once
+         */
+        private DescriptorDelta changes() {
+            if (changes == null) {
+                changes = DescriptorDelta.of(storedDescriptor, actualDescriptor);
+            }
+            return changes;
+        }
+
+        /**
+         * Removes only what actual descriptor dropped, unchanged requirements stay in place.
+         *
+         * @param bundleIds bundles deployed together, their ownership is replaced by actual descriptors
+         */
+        private void unapply(final KarafRequirements featureReqs, final Set<URI> requiredReposUris,
+                             final Set<Long> bundleIds) {
+            changes().unapplyRequirements(featureReqs,
+                    (region, requirement) -> ownership.isOwnedOutside(region, requirement, bundleIds));
+            for (String repository : changes().getRemovedRepositories()) {
+                final URI repoUri = ownership.repository(bundleId, repository);
+                if (repoUri != null && !ownership.isOwnedOutside(repoUri, bundleIds)) {
+                    requiredReposUris.remove(repoUri);
+                }
+            }
+        }
+
+        /**
+         * Adds actual descriptor, adding unchanged requirements is no-op unless they were dropped out of deployer.
+         */
+        private void apply(final KarafRequirements featureReqs, final Set<URI> requiredReposUris) {
+            if (actualDescriptor != null) {
+                for (String repository : actualDescriptor.getRepositories()) {
+                    final URI reposUri = repositoryResolver.resolve(repository);
+                    if (reposUri == null) {
+                        logger.warn("Can't resolve repo spec {}", repository);
+                    } else {
+                        requiredReposUris.add(reposUri);
+                    }
+                }
+                featureReqs.addAll(actualDescriptor.getRequirements());
+            }
+        }
+
+        private DeploymentTimeline timeline(final long[] batchTimings) {
+            for (int i = 0; i < timings.length; i++) {
+                if (timings[i] == DeploymentTimeline.NOT_RUN) {
+                    timings[i] = batchTimings[i];
+                }
+            }
+            return new DeploymentTimeline(bundleId, toString(), startedAt, timings, System.nanoTime() - startNanos,
+                    delta(), unsatisfied, states.getOrDefault(bundleId, BundleState.Unknown), error);
+        }
+
+        /**
+         * @return repositories and requirements added, removed and re-versioned by this deployment, options it was
+         * deployed with
+         */
+        private List<String> delta() {
+            final List<String> delta = changes().describe();
+            for (FeaturesService.Option option : suppressed) {
+                delta.add("option " + option);
+            }
+            return delta;
+        }
+
+        @Override
+        public String toString() {
+            return bundle == null ? "bundle " + bundleId : bundle.toString();
+        }
+    }
+
+    /**
+     * Karaf requirements as seen after our last deployment, valid while no features event happened since.
+     */
+    private static final class ProvisionedSnapshot {
+        private final long generation;
+        private final RequirementIndex requirements;
+
+        private ProvisionedSnapshot(final long generation, final RequirementIndex requirements) {
+            this.generation = generation;
+            this.requirements = requirements;
         }
-        return repoUri;
     }
 }
@@ -0,0 +1,96 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.felix.utils.version.VersionRange;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Interned requirement of feature by name and version range. Karaf form {@code feature:name/range} is produced
+ * and parsed only when talking to {@link org.apache.karaf.features.FeaturesService}. Interning is weak, requirement
+ * nobody references any more is released.
+ */
+final class FeatureRequirement {
+    static final String PREFIX = "feature:";
+    static final String VERSION_SEPARATOR = "/";
+    private static final Map<FeatureRequirement, WeakReference<FeatureRequirement>> INTERNED = new WeakHashMap<>();
+
+    private final String name;
+    private final VersionRange version;
+    private final int hash;
+    private final String spec;
+
+    private FeatureRequirement(final String name, final VersionRange version) {
+        this.name = name;
+        this.version = version;
+        this.hash = 31 * name.hashCode() + version.hashCode();
+        this.spec = PREFIX + name + VERSION_SEPARATOR + version;
+    }
+
+    static FeatureRequirement of(final String name, final VersionRange version) {
+        final FeatureRequirement requirement = new FeatureRequirement(name, version);
+        synchronized (INTERNED) {
+            final WeakReference<FeatureRequirement> reference = INTERNED.get(requirement);
+            final FeatureRequirement interned = reference == null ? null : reference.get();
+            if (interned != null) {
+                return interned;
+            }
+            INTERNED.put(requirement, new WeakReference<>(requirement));
+            return requirement;
+        }
+    }
+
+    /**
+     * @param spec Karaf requirement
+     * @return parsed requirement or {@code null} if it is not feature requirement
+     */
+    static FeatureRequirement parse(final String spec) {
+        if (!spec.startsWith(PREFIX)) {
+            return null;
+        }
+        final int separator = spec.indexOf(VERSION_SEPARATOR, PREFIX.length());
+        if (separator < 0) {
+            return of(spec.substring(PREFIX.length()), VersionRange.ANY_VERSION);
+        }
+        return of(spec.substring(PREFIX.length(), separator),
+                VersionRange.parseVersionRange(spec.substring(separator + 1)));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    VersionRange getVersion() {
+        return version;
+    }
+
+    /**
+     * @return requirement in Karaf form
+     */
+    String toSpec() {
+        return spec;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final FeatureRequirement that = (FeatureRequirement) o;
+        return hash == that.hash && name.equals(that.name) && version.equals(that.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
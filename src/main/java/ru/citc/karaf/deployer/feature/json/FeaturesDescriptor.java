@@ -1,61 +1,125 @@
 package ru.citc.karaf.deployer.feature.json;
 
 import org.apache.felix.utils.version.VersionRange;
+import org.apache.karaf.features.FeaturesService;
 import org.apache.karaf.features.internal.model.Feature;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 final class FeaturesDescriptor {
-    static final String VERSION_SEPARATOR = "/";
     static final String FEATURE_VERSION = "version";
     private static final String FIELD_FEATURES_REQUIREMENTS_VERSION = "featuresRequirementsVersion";
     private static final String FIELD_REPOSITORIES = "repositories";
     private static final String FIELD_FEATURES = "features";
-    private static final String FEATURE_REQ_PREFIX = "feature:";
+    private static final String FIELD_PRIORITY = "priority";
+    private static final String FIELD_OPTIONS = "options";
     private static final String FEATURE_NAME = "name";
+    private static final String[] DESCRIPTOR_FIELDS = {
+            FIELD_FEATURES_REQUIREMENTS_VERSION, FIELD_REPOSITORIES, FIELD_FEATURES, FIELD_PRIORITY,
+            FIELD_OPTIONS};
+    private static final String[] FEATURE_FIELDS = {FEATURE_NAME, FEATURE_VERSION};
     private static final VersionRange DEFAULT_VERSION_RANGE = new VersionRange(Feature.DEFAULT_VERSION);
+    /**
+     * Deployment options descriptor may request, ones suppressing automatic bundles refresh and start.
+     */
+    static final Set<FeaturesService.Option> SUPPORTED_OPTIONS = Collections.unmodifiableSet(EnumSet.of(
+            FeaturesService.Option.NoAutoRefreshBundles, FeaturesService.Option.NoAutoRefreshManagedBundles,
+            FeaturesService.Option.NoAutoRefreshUnmanagedBundles, FeaturesService.Option.NoAutoStartBundles,
+            FeaturesService.Option.NoAutoManageBundles));
+    /**
+     * Descriptor without repositories and requirements.
+     */
+    static final FeaturesDescriptor EMPTY = new FeaturesDescriptor();
     private final Set<String> repos = new LinkedHashSet<>();
-    private final Map<String, Set<String>> featuresRequirements = new LinkedHashMap<>();
+    private final Map<String, Set<FeatureRequirement>> featuresRequirements = new LinkedHashMap<>();
+    private final Set<FeaturesService.Option> options = EnumSet.noneOf(FeaturesService.Option.class);
+    private int priority;
+    private String fingerprint;
 
     private FeaturesDescriptor() {
     }
 
-    static FeaturesDescriptor fromJson(final JSONObject jsonObject) {
-        final Object descriptorVersion = jsonObject.get(FIELD_FEATURES_REQUIREMENTS_VERSION);
-        if (descriptorVersion == null) {
-            throw new IllegalArgumentException("Invalid descriptor: 'featuresRequirementsVersion' are required.");
-        }
-        if (new BigDecimal(String.valueOf(descriptorVersion)).intValue() != 1) {
-            throw new IllegalArgumentException("Unsupported descriptor version " + descriptorVersion);
-        }
+    /**
+     * Streams descriptor from JSON document.
+     *
+     * @throws DescriptorSyntaxException if document is malformed or is not valid descriptor
+     */
+    static FeaturesDescriptor read(final Reader reader) throws IOException {
+        final JsonReader json = new JsonReader(reader);
+        final FeaturesDescriptor instance = read(json);
+        json.endDocument();
+        return instance;
+    }
+
+    static FeaturesDescriptor read(final JsonReader json) throws IOException {
         final FeaturesDescriptor instance = new FeaturesDescriptor();
-        final List<String> repositories = (List<String>) jsonObject.getOrDefault(FIELD_REPOSITORIES, Collections.emptyList());
-        for (String repo : repositories) {
-            instance.repos.add(repo);
-        }
-        final Map<String, List<Map<String, String>>> featuresReqs = (Map<String, List<Map<String, String>>>) jsonObject.get(FIELD_FEATURES);
-        for (Map.Entry<String, List<Map<String, String>>> entry : featuresReqs.entrySet()) {
-            final Set<String> regionFeatures = instance.featuresRequirements
-                    .computeIfAbsent(entry.getKey(), key -> new LinkedHashSet<>());
-            for (Map<String, String> featureObject : entry.getValue()) {
-                final String name = featureObject.get(FEATURE_NAME);
-                if (name == null || name.trim().isEmpty()) {
-                    throw new IllegalArgumentException("Name is required for feature spec. Source: " + featureObject);
-                }
-                final String version = featureObject.get(FEATURE_VERSION);
-                regionFeatures.add(FEATURE_REQ_PREFIX + name + VERSION_SEPARATOR
-                        + (version == null ? DEFAULT_VERSION_RANGE : new VersionRange(version, true)));
+        String descriptorVersion = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.selectName(DESCRIPTOR_FIELDS)) {
+                case 0:
+                    descriptorVersion = json.nextString();
+                    if (!isSupportedVersion(descriptorVersion)) {
+                        throw json.error("Unsupported descriptor version " + descriptorVersion);
+                    }
+                    break;
+                case 1:
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        instance.repos.add(json.nextString());
+                    }
+                    json.endArray();
+                    break;
+                case 2:
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        final Set<FeatureRequirement> regionFeatures = instance.featuresRequirements
+                                .computeIfAbsent(json.nextName(), key -> new LinkedHashSet<>());
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            regionFeatures.add(readFeature(json));
+                        }
+                        json.endArray();
+                    }
+                    json.endObject();
+                    break;
+                case 3:
+                    final String priority = json.nextString();
+                    try {
+                        instance.priority = Integer.parseInt(priority);
+                    } catch (NumberFormatException e) {
+                        throw json.error("Invalid priority " + priority);
+                    }
+                    break;
+                case 4:
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        instance.options.add(readOption(json));
+                    }
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+                    break;
             }
         }
+        if (descriptorVersion == null) {
+            throw json.error("Invalid descriptor: 'featuresRequirementsVersion' are required.");
+        }
+        json.endObject();
         return instance;
     }
 
@@ -63,62 +127,117 @@ final class FeaturesDescriptor {
         return Collections.unmodifiableSet(repos);
     }
 
-    Map<String, Set<String>> getRequirements() {
+    Map<String, Set<FeatureRequirement>> getRequirements() {
         return Collections.unmodifiableMap(featuresRequirements);
     }
 
-    //TODO test
+    /**
+     * @return deployment priority, descriptors with higher one are deployed first, {@code 0} by default
+     */
+    int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return deployment options requested, subset of {@link #SUPPORTED_OPTIONS}
+     */
+    Set<FeaturesService.Option> getOptions() {
+        return Collections.unmodifiableSet(options);
+    }
+
     void ensureSatisfied(final Map<String, Set<String>> actualReqs) {
-        final Set<String> reqsDiff = new LinkedHashSet<>();
-        for (Map.Entry<String, Set<String>> requestedRegionToFeatures : featuresRequirements.entrySet()) {
-            final Set<String> actualRegionReqs = actualReqs.getOrDefault(requestedRegionToFeatures.getKey(), Collections.emptySet());
-            for (String featureReq : requestedRegionToFeatures.getValue()) {
-                final Requirement requested = parseRequirement(featureReq);
-                boolean found = false;
-                for (String actualReq : actualRegionReqs) {
-                    final Requirement actual = parseRequirement(actualReq);
-                    if (requested.isSatisfiedBy(actual)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    reqsDiff.add(featureReq);
-                }
-            }
-        }
+        ensureSatisfied(RequirementIndex.of(actualReqs));
+    }
+
+    void ensureSatisfied(final RequirementIndex actualReqs) {
+        final Set<FeatureRequirement> reqsDiff = unsatisfied(actualReqs);
         if (!reqsDiff.isEmpty()) {
             throw new IllegalStateException("Requirements no provisioned: " + reqsDiff);
         }
     }
 
-    JSONObject toJson() {
-        final JSONObject result = new JSONObject();
-        result.put(FIELD_FEATURES_REQUIREMENTS_VERSION, "1.0");
-        final JSONArray reposArray = new JSONArray();
-        reposArray.addAll(repos);
-        result.put(FIELD_REPOSITORIES, reposArray);
-        final JSONObject allFeatures = new JSONObject();
-        result.put(FIELD_FEATURES, allFeatures);
-        for (Map.Entry<String, Set<String>> regionToFeatures : featuresRequirements.entrySet()) {
-            final JSONArray regionFeatures = new JSONArray();
-            allFeatures.put(regionToFeatures.getKey(), regionFeatures);
-            for (String fetureReqSpec : regionToFeatures.getValue()) {
-                final String[] nameToVersion = fetureReqSpec.substring(FEATURE_REQ_PREFIX.length()).split(VERSION_SEPARATOR, 2);
-                final JSONObject featureObject = new JSONObject();
-                featureObject.put(FEATURE_NAME, nameToVersion[0]);
-                final VersionRange versionRange = new VersionRange(nameToVersion[1]);
+    boolean isSatisfied(final RequirementIndex actualReqs) {
+        return unsatisfied(actualReqs).isEmpty();
+    }
+
+    /**
+     * Content hash independent of repositories, regions, features and options order. Computed once per instance.
+     */
+    String fingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            final StringBuilder canonical = new StringBuilder();
+            new TreeSet<>(repos).forEach(repo -> canonical.append(repo).append('\n'));
+            for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures
+                    : new TreeMap<>(featuresRequirements).entrySet()) {
+                canonical.append('\n').append(regionToFeatures.getKey()).append('\n');
+                regionToFeatures.getValue().stream()
+                        .map(FeatureRequirement::toSpec)
+                        .sorted()
+                        .forEach(spec -> canonical.append(spec).append('\n'));
+            }
+            // Defaults are omitted, so descriptors without them keep fingerprints of previous versions
+            if (priority != 0) {
+                canonical.append("\npriority ").append(priority).append('\n');
+            }
+            if (!options.isEmpty()) {
+                canonical.append("\noptions ").append(options).append('\n');
+            }
+            final byte[] hash = DescriptorCache.hash(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            result = hex.toString();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    void write(final Writer writer) throws IOException {
+        final JsonWriter json = new JsonWriter(writer);
+        write(json);
+        json.flush();
+    }
+
+    void write(final JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name(FIELD_FEATURES_REQUIREMENTS_VERSION).value("1.0");
+        json.name(FIELD_REPOSITORIES).beginArray();
+        for (String repo : repos) {
+            json.value(repo);
+        }
+        json.endArray();
+        json.name(FIELD_FEATURES).beginObject();
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : featuresRequirements.entrySet()) {
+            json.name(regionToFeatures.getKey()).beginArray();
+            for (FeatureRequirement featureReq : regionToFeatures.getValue()) {
+                json.beginObject();
+                json.name(FEATURE_NAME).value(featureReq.getName());
+                final VersionRange versionRange = featureReq.getVersion();
                 if (!versionRange.equals(DEFAULT_VERSION_RANGE)) {
                     if (versionRange.isPointVersion()) {
-                        featureObject.put(FEATURE_VERSION, versionRange.getFloor().toString());
+                        json.name(FEATURE_VERSION).value(versionRange.getFloor().toString());
                     } else {
-                        featureObject.put(FEATURE_VERSION, versionRange.toString());
+                        json.name(FEATURE_VERSION).value(versionRange.toString());
                     }
                 }
-                regionFeatures.add(featureObject);
+                json.endObject();
             }
+            json.endArray();
         }
-        return result;
+        json.endObject();
+        if (priority != 0) {
+            json.name(FIELD_PRIORITY).value(priority);
+        }
+        if (!options.isEmpty()) {
+            json.name(FIELD_OPTIONS).beginArray();
+            for (FeaturesService.Option option : options) {
+                json.value(option.name());
+            }
+            json.endArray();
+        }
+        json.endObject();
     }
 
     @Override
@@ -130,13 +249,15 @@ final class FeaturesDescriptor {
             return false;
         }
         final FeaturesDescriptor that = (FeaturesDescriptor) o;
-        return repos.equals(that.repos) &&
+        return priority == that.priority &&
+                options.equals(that.options) &&
+                repos.equals(that.repos) &&
                 featuresRequirements.equals(that.featuresRequirements);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(repos, featuresRequirements);
+        return Objects.hash(repos, featuresRequirements, priority, options);
     }
 
     @Override
@@ -144,25 +265,72 @@ final class FeaturesDescriptor {
         return "FeaturesDescriptor{" +
                 "version=1,repos=" + repos +
                 ", featuresRequirements=" + featuresRequirements +
+                ", priority=" + priority +
+                ", options=" + options +
                 '}';
     }
 
-    private Requirement parseRequirement(final String reqSpec) {
-        final String[] nameToVersion = reqSpec.split(VERSION_SEPARATOR, 2);
-        return new Requirement(nameToVersion[0], VersionRange.parseVersionRange(nameToVersion[1]));
+    /**
+     * @return requirements not provisioned in Karaf
+     */
+    Set<FeatureRequirement> unsatisfied(final RequirementIndex actualReqs) {
+        final Set<FeatureRequirement> reqsDiff = new LinkedHashSet<>();
+        for (Map.Entry<String, Set<FeatureRequirement>> requestedRegionToFeatures : featuresRequirements.entrySet()) {
+            final String region = requestedRegionToFeatures.getKey();
+            for (FeatureRequirement requested : requestedRegionToFeatures.getValue()) {
+                if (!actualReqs.isSatisfied(region, requested)) {
+                    reqsDiff.add(requested);
+                }
+            }
+        }
+        return reqsDiff;
     }
 
-    private static class Requirement {
-        private final String name;
-        private final VersionRange version;
+    private static boolean isSupportedVersion(final String descriptorVersion) {
+        try {
+            return new BigDecimal(descriptorVersion).intValue() == 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
 
-        private Requirement(final String name, final VersionRange version) {
-            this.name = name;
-            this.version = version;
+    private static FeaturesService.Option readOption(final JsonReader json) throws IOException {
+        final String name = json.nextString();
+        for (FeaturesService.Option option : SUPPORTED_OPTIONS) {
+            if (option.name().equals(name)) {
+                return option;
+            }
         }
+        throw json.error("Unsupported deployment option " + name + ", expected one of " + SUPPORTED_OPTIONS);
+    }
 
-        private boolean isSatisfiedBy(final Requirement actual) {
-            return name.equals(actual.name) && version.intersect(actual.version) != null;
+    private static FeatureRequirement readFeature(final JsonReader json) throws IOException {
+        String name = null;
+        String version = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.selectName(FEATURE_FIELDS)) {
+                case 0:
+                    name = json.nextString();
+                    break;
+                case 1:
+                    version = json.nextString();
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        if (name == null || name.trim().isEmpty()) {
+            throw json.error("Name is required for feature spec");
+        }
+        final VersionRange range;
+        try {
+            range = version == null ? DEFAULT_VERSION_RANGE : new VersionRange(version, true);
+        } catch (IllegalArgumentException e) {
+            throw json.error("Invalid version '" + version + "' of feature " + name);
         }
+        json.endObject();
+        return FeatureRequirement.of(name, range);
     }
 }
@@ -1,7 +1,6 @@
 package ru.citc.karaf.deployer.feature.json;
 
 import org.apache.karaf.util.DeployerUtils;
-import org.apache.karaf.util.StreamUtils;
 import org.osgi.framework.Constants;
 import org.osgi.service.url.AbstractURLStreamHandlerService;
 import org.slf4j.Logger;
@@ -11,9 +10,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
@@ -23,10 +25,17 @@ final class JsonFeatureURLHandler extends AbstractURLStreamHandlerService {
     static final String PREFIX = "featurejson";
     static final String FEATURE_JSON_PATH = "org.apache.karaf.features.json";
     static final String JSON_FEATURE_DESCRIPTOR_PATH = "META-INF/" + FEATURE_JSON_PATH + "/features.json";
+    // Fixed entry time makes generated bundle depend on source content only
+    private static final long ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1).getTimeInMillis();
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final WrapperBundleCache cache;
 
-    private static byte[] transform(final URL url) throws Exception {
+    JsonFeatureURLHandler(final WrapperBundleCache cache) {
+        this.cache = cache;
+    }
+
+    private static Manifest manifest(final URL url) {
         // Heuristicly retrieve name and version
         String name = url.getPath();
         final int idx = name.lastIndexOf('/');
@@ -40,29 +49,7 @@ final class JsonFeatureURLHandler extends AbstractURLStreamHandlerService {
         manifest.getMainAttributes().putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
         manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, nameVersionStr[0]);
         manifest.getMainAttributes().putValue(Constants.BUNDLE_VERSION, nameVersionStr[1]);
-
-        // Put content
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-             JarOutputStream out = new JarOutputStream(os)) {
-
-            ZipEntry e = new ZipEntry(JarFile.MANIFEST_NAME);
-            out.putNextEntry(e);
-            manifest.write(out);
-            out.closeEntry();
-            e = new ZipEntry("META-INF/");
-            out.putNextEntry(e);
-            e = new ZipEntry("META-INF/" + FEATURE_JSON_PATH + "/");
-            out.putNextEntry(e);
-            out.closeEntry();
-            e = new ZipEntry(JSON_FEATURE_DESCRIPTOR_PATH);
-            out.putNextEntry(e);
-            try (InputStream fis = url.openStream()) {
-                StreamUtils.copy(fis, out);
-            }
-            out.closeEntry();
-            out.close();
-            return os.toByteArray();
-        }
+        return manifest;
     }
 
     @Override
@@ -73,14 +60,16 @@ final class JsonFeatureURLHandler extends AbstractURLStreamHandlerService {
         }
 
         logger.debug("Features JSON URL is: [{}]", subUri);
-        return new Connection(url);
+        return new Connection(url, cache);
     }
 
     static final class Connection extends URLConnection {
         private final Logger logger = LoggerFactory.getLogger(getClass());
+        private final WrapperBundleCache cache;
 
-        Connection(final URL url) {
+        Connection(final URL url, final WrapperBundleCache cache) {
             super(url);
+            this.cache = cache;
         }
 
         @Override
@@ -90,13 +79,142 @@ final class JsonFeatureURLHandler extends AbstractURLStreamHandlerService {
         @Override
         public InputStream getInputStream() throws IOException {
             try {
-                final String subUri = url.getPath();
-                final byte[] content = transform(new URL(subUri));
-                return new ByteArrayInputStream(content);
+                final URL source = new URL(url.getPath());
+                final Buffer head = new Buffer();
+                final InputStream sourceStream = source.openStream();
+                try {
+                    if (!head.fill(sourceStream, cache.getMaxEntryBytes() + 1)) {
+                        // Too large to cache, generate while bundle is read
+                        return new WrapperBundleStream(manifest(source),
+                                new SequenceInputStream(head.toInputStream(), sourceStream));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    sourceStream.close();
+                    throw e;
+                }
+                sourceStream.close();
+                final String sourceUrl = source.toExternalForm();
+                final byte[] sourceHash = DescriptorCache.hash(head.buffer(), head.size());
+                final InputStream cached = cache.get(sourceUrl, sourceHash);
+                if (cached != null) {
+                    logger.debug("Wrapper bundle of {} found in cache", sourceUrl);
+                    return cached;
+                }
+                final Buffer bundle = new Buffer();
+                try (InputStream generated = new WrapperBundleStream(manifest(source), head.toInputStream())) {
+                    bundle.fill(generated, Long.MAX_VALUE);
+                }
+                cache.put(sourceUrl, sourceHash, bundle.buffer(), bundle.size());
+                return bundle.toInputStream();
             } catch (Exception e) {
                 logger.error("Error opening features JS url", e);
                 throw new IOException("Error opening features xml url", e);
             }
         }
     }
+
+    /**
+     * Wrapper bundle content generated on demand while source descriptor is read.
+     */
+    private static final class WrapperBundleStream extends InputStream {
+        private final InputStream source;
+        private final Buffer output = new Buffer();
+        private final JarOutputStream jar;
+        private final byte[] chunk = new byte[8192];
+        private int position;
+        private boolean finished;
+
+        private WrapperBundleStream(final Manifest manifest, final InputStream source) throws IOException {
+            this.source = source;
+            jar = new JarOutputStream(output);
+            putEntry(JarFile.MANIFEST_NAME);
+            manifest.write(jar);
+            jar.closeEntry();
+            putEntry("META-INF/");
+            putEntry("META-INF/" + FEATURE_JSON_PATH + "/");
+            jar.closeEntry();
+            putEntry(JSON_FEATURE_DESCRIPTOR_PATH);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == output.size()) {
+                if (finished) {
+                    return -1;
+                }
+                output.reset();
+                position = 0;
+                pump();
+            }
+            final int count = Math.min(len, output.size() - position);
+            System.arraycopy(output.buffer(), position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private void pump() throws IOException {
+            final int count = source.read(chunk);
+            if (count < 0) {
+                jar.closeEntry();
+                jar.close();
+                finished = true;
+            } else {
+                jar.write(chunk, 0, count);
+            }
+        }
+
+        private void putEntry(final String name) throws IOException {
+            final ZipEntry entry = new ZipEntry(name);
+            entry.setTime(ENTRY_TIME);
+            jar.putNextEntry(entry);
+        }
+    }
+
+    /**
+     * Byte buffer exposing its content without copying.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(1024);
+        }
+
+        /**
+         * Reads source until end or until buffer holds {@code limit} bytes.
+         *
+         * @return {@code true} if source is exhausted
+         */
+        private boolean fill(final InputStream source, final long limit) throws IOException {
+            final byte[] chunk = new byte[8192];
+            while (count < limit) {
+                final int read = source.read(chunk, 0, (int) Math.min(chunk.length, limit - count));
+                if (read < 0) {
+                    return true;
+                }
+                write(chunk, 0, read);
+            }
+            return false;
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+
+        private InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
 }
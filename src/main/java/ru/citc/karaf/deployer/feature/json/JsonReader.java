@@ -0,0 +1,376 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal pull parser for JSON documents. Tracks line and column for error reports, skips unknown values without
+ * building strings.
+ */
+final class JsonReader {
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[1024];
+    private final StringBuilder text = new StringBuilder();
+    private int pos;
+    private int limit;
+    private int line = 1;
+    private int column = 1;
+    private int[] stack = new int[16];
+    private int stackSize = 1;
+    private Token peeked;
+    private boolean literal;
+
+    JsonReader(final Reader in) {
+        this.in = in;
+        stack[0] = EMPTY_DOCUMENT;
+    }
+
+    Token peek() throws IOException {
+        if (peeked == null) {
+            peeked = doPeek();
+        }
+        return peeked;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Ensures nothing but whitespace follows top level value.
+     */
+    void endDocument() throws IOException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    /**
+     * @return {@code true} if current array or object has more elements
+     */
+    boolean hasNext() throws IOException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        readString();
+        return text.toString();
+    }
+
+    /**
+     * Reads property name and matches it against expected ones without allocation.
+     *
+     * @return index of name in {@code names} or -1 for unknown name
+     */
+    int selectName(final String... names) throws IOException {
+        expect(Token.NAME);
+        readString();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].contentEquals(text)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return string value, or text of number value
+     */
+    String nextString() throws IOException {
+        final Token token = peek();
+        if (token == Token.STRING) {
+            peeked = null;
+            readString();
+        } else if (token == Token.NUMBER) {
+            peeked = null;
+        } else {
+            throw error("Expected STRING but was " + token);
+        }
+        return text.toString();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return literal;
+    }
+
+    void nextNull() throws IOException {
+        expect(Token.NULL);
+    }
+
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            final Token token = peek();
+            peeked = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    push(EMPTY_OBJECT);
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    push(EMPTY_ARRAY);
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    stackSize--;
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw error("Unexpected end of document");
+                default:
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * @return exception describing syntax or content error at current position
+     */
+    DescriptorSyntaxException error(final String message) {
+        return new DescriptorSyntaxException(message, line, column);
+    }
+
+    private void expect(final Token expected) throws IOException {
+        final Token token = peek();
+        if (token != expected) {
+            throw error("Expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(final int scope) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token doPeek() throws IOException {
+        final int scope = stack[stackSize - 1];
+        int c;
+        if (scope == EMPTY_ARRAY || scope == NONEMPTY_ARRAY) {
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return Token.END_ARRAY;
+            }
+            if (scope == NONEMPTY_ARRAY) {
+                if (c != ',') {
+                    throw error("Expected ',' or ']'");
+                }
+                c = nextNonWhitespace();
+            }
+        } else if (scope == EMPTY_OBJECT || scope == NONEMPTY_OBJECT) {
+            stack[stackSize - 1] = DANGLING_NAME;
+            c = nextNonWhitespace();
+            if (c == '}') {
+                return Token.END_OBJECT;
+            }
+            if (scope == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+            if (c != '"') {
+                throw error("Expected name");
+            }
+            return Token.NAME;
+        } else if (scope == DANGLING_NAME) {
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':') {
+                throw error("Expected ':'");
+            }
+            c = nextNonWhitespace();
+        } else if (scope == EMPTY_DOCUMENT) {
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            c = nextNonWhitespace();
+        } else {
+            c = nextNonWhitespace();
+            if (c == -1) {
+                return Token.END_DOCUMENT;
+            }
+            throw error("Unexpected content after document end");
+        }
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                literal = true;
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("alse");
+                literal = false;
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw error("Unexpected end of document");
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void readLiteral(final String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw error("Invalid literal");
+            }
+        }
+    }
+
+    private void readNumber(final char first) throws IOException {
+        text.setLength(0);
+        text.append(first);
+        while (fill()) {
+            final char c = buffer[pos];
+            if (c >= '0' && c <= '9' || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                text.append(c);
+                advance();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void readString() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                text.append(readEscape());
+            } else if (c == -1) {
+                throw error("Unterminated string");
+            } else {
+                text.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                readEscape();
+            } else if (c == -1) {
+                throw error("Unterminated string");
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final int c = read();
+        switch (c) {
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    value = value * 16 + digit;
+                }
+                return (char) value;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw error("Invalid escape sequence");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        final char c = buffer[pos];
+        advance();
+        return c;
+    }
+
+    private void advance() {
+        if (buffer[pos++] == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) {
+            return true;
+        }
+        limit = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+}
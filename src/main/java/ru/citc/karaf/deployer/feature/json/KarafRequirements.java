@@ -0,0 +1,104 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Mutable copy of Karaf requirements by region. Feature requirements are typed, other requirement kinds are passed
+ * through untouched.
+ */
+final class KarafRequirements {
+    private final Map<String, Set<FeatureRequirement>> features = new LinkedHashMap<>();
+    private final Map<String, Set<String>> others = new LinkedHashMap<>();
+
+    private KarafRequirements() {
+    }
+
+    /**
+     * @param requirements as returned by {@link org.apache.karaf.features.FeaturesService#listRequirements()}
+     */
+    static KarafRequirements of(final Map<String, Set<String>> requirements) {
+        final KarafRequirements result = new KarafRequirements();
+        for (Map.Entry<String, Set<String>> regionToReqs : requirements.entrySet()) {
+            final Set<FeatureRequirement> regionFeatures = result.region(regionToReqs.getKey());
+            for (String spec : regionToReqs.getValue()) {
+                final FeatureRequirement requirement = FeatureRequirement.parse(spec);
+                if (requirement == null) {
+                    result.others.computeIfAbsent(regionToReqs.getKey(), key -> new LinkedHashSet<>()).add(spec);
+                } else {
+                    regionFeatures.add(requirement);
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean addAll(final String region, final Collection<FeatureRequirement> requirements) {
+        return region(region).addAll(requirements);
+    }
+
+    /**
+     * @param requirements feature requirements by region
+     */
+    void addAll(final Map<String, Set<FeatureRequirement>> requirements) {
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToReqs : requirements.entrySet()) {
+            addAll(regionToReqs.getKey(), regionToReqs.getValue());
+        }
+    }
+
+    boolean removeAll(final String region, final Collection<FeatureRequirement> requirements) {
+        final Set<FeatureRequirement> regionFeatures = features.get(region);
+        return regionFeatures != null && regionFeatures.removeAll(requirements);
+    }
+
+    /**
+     * @return requirements in form accepted by
+     * {@link org.apache.karaf.features.FeaturesService#updateReposAndRequirements}
+     */
+    Map<String, Set<String>> toKaraf() {
+        final Map<String, Set<String>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Set<FeatureRequirement>> regionToFeatures : features.entrySet()) {
+            final Set<String> regionReqs = new LinkedHashSet<>();
+            for (FeatureRequirement requirement : regionToFeatures.getValue()) {
+                regionReqs.add(requirement.toSpec());
+            }
+            regionReqs.addAll(others.getOrDefault(regionToFeatures.getKey(), Collections.emptySet()));
+            result.put(regionToFeatures.getKey(), regionReqs);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final KarafRequirements that = (KarafRequirements) o;
+        return features.equals(that.features) && others.equals(that.others);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(features, others);
+    }
+
+    @Override
+    public String toString() {
+        return "KarafRequirements{" +
+                "features=" + features +
+                ", others=" + others +
+                '}';
+    }
+
+    private Set<FeatureRequirement> region(final String region) {
+        return features.computeIfAbsent(region, key -> new LinkedHashSet<>());
+    }
+}
@@ -0,0 +1,115 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bundles owning each requirement and repository by applied descriptors. Built from persisted states and kept in
+ * line with them, so shared requirement is removed from Karaf only when its last owner goes away. Accessed by
+ * deployer thread only.
+ */
+final class OwnershipIndex {
+    private final RepositoryResolver repositoryResolver;
+    private final Map<String, Map<FeatureRequirement, Set<Long>>> requirements = new HashMap<>();
+    private final Map<URI, Set<Long>> repositories = new HashMap<>();
+    // Resolution of repository names may change, applied descriptor releases URIs it was resolved to
+    private final Map<Long, Map<String, URI>> resolvedRepositories = new HashMap<>();
+
+    OwnershipIndex(final RepositoryResolver repositoryResolver) {
+        this.repositoryResolver = repositoryResolver;
+    }
+
+    /**
+     * Applies change of bundle's applied descriptor.
+     */
+    void apply(final long bundleId, final DescriptorDelta delta) {
+        for (Map.Entry<String, Set<FeatureRequirement>> regionReqs : delta.getRemovedRequirements().entrySet()) {
+            final Map<FeatureRequirement, Set<Long>> regionOwners = requirements.get(regionReqs.getKey());
+            if (regionOwners != null) {
+                for (FeatureRequirement requirement : regionReqs.getValue()) {
+                    release(regionOwners, requirement, bundleId);
+                }
+                if (regionOwners.isEmpty()) {
+                    requirements.remove(regionReqs.getKey());
+                }
+            }
+        }
+        final Map<String, URI> resolved = resolvedRepositories.computeIfAbsent(bundleId, key -> new HashMap<>());
+        for (String repository : delta.getRemovedRepositories()) {
+            final URI repoUri = resolved.remove(repository);
+            if (repoUri != null) {
+                release(repositories, repoUri, bundleId);
+            }
+        }
+        for (Map.Entry<String, Set<FeatureRequirement>> regionReqs : delta.getAddedRequirements().entrySet()) {
+            final Map<FeatureRequirement, Set<Long>> regionOwners = requirements
+                    .computeIfAbsent(regionReqs.getKey(), key -> new HashMap<>());
+            for (FeatureRequirement requirement : regionReqs.getValue()) {
+                regionOwners.computeIfAbsent(requirement, key -> new HashSet<>(2)).add(bundleId);
+            }
+        }
+        for (String repository : delta.getAddedRepositories()) {
+            final URI repoUri = repositoryResolver.resolve(repository);
+            if (repoUri != null) {
+                resolved.put(repository, repoUri);
+                repositories.computeIfAbsent(repoUri, key -> new HashSet<>(2)).add(bundleId);
+            }
+        }
+        if (resolved.isEmpty()) {
+            resolvedRepositories.remove(bundleId);
+        }
+    }
+
+    /**
+     * @return URI repository of bundle's applied descriptor was resolved to, {@code null} if it was not resolved
+     */
+    URI repository(final long bundleId, final String repository) {
+        return resolvedRepositories.getOrDefault(bundleId, Collections.emptyMap()).get(repository);
+    }
+
+    /**
+     * @return number of bundles owning requirement
+     */
+    int count(final String region, final FeatureRequirement requirement) {
+        return requirements.getOrDefault(region, Collections.emptyMap())
+                .getOrDefault(requirement, Collections.emptySet()).size();
+    }
+
+    /**
+     * @param bundleIds bundles to ignore, usually ones being deployed
+     * @return {@code true} if requirement is owned by some other bundle
+     */
+    boolean isOwnedOutside(final String region, final FeatureRequirement requirement, final Set<Long> bundleIds) {
+        return isOwnedOutside(requirements.getOrDefault(region, Collections.emptyMap()).get(requirement), bundleIds);
+    }
+
+    /**
+     * @param bundleIds bundles to ignore, usually ones being deployed
+     * @return {@code true} if repository is owned by some other bundle
+     */
+    boolean isOwnedOutside(final URI repository, final Set<Long> bundleIds) {
+        return isOwnedOutside(repositories.get(repository), bundleIds);
+    }
+
+    private static boolean isOwnedOutside(final Set<Long> owners, final Set<Long> bundleIds) {
+        if (owners != null) {
+            for (Long owner : owners) {
+                if (!bundleIds.contains(owner)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static <K> void release(final Map<K, Set<Long>> owners, final K key, final long bundleId) {
+        final Set<Long> keyOwners = owners.get(key);
+        if (keyOwners != null && keyOwners.remove(bundleId) && keyOwners.isEmpty()) {
+            owners.remove(key);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.FeaturesService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves descriptor repository specs to URIs. Absolute URIs are used as is, names are looked up in Karaf
+ * repository catalog once and cached until {@link #invalidate()}, failed lookups are cached for negative TTL.
+ */
+final class RepositoryResolver {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final FeaturesService featuresService;
+    private final long negativeTtlNanos;
+    private final Map<String, Entry> names = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    RepositoryResolver(final FeaturesService featuresService, final long negativeTtl) {
+        this.featuresService = featuresService;
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtl);
+    }
+
+    /**
+     * @return repository URI or {@code null} if spec is neither absolute URI nor known repository name
+     */
+    URI resolve(final String repositorySpec) {
+        try {
+            final URI repoUri = new URI(repositorySpec);
+            if (repoUri.isAbsolute()) {
+                return repoUri;
+            }
+        } catch (URISyntaxException e) {
+            // Not an URI, may be a name
+        }
+        final Entry cached = names.get(repositorySpec);
+        if (cached != null && (cached.uri != null || System.nanoTime() - cached.resolvedAt < negativeTtlNanos)) {
+            return cached.uri;
+        }
+        final long lookupGeneration = generation.get();
+        URI repoUri = null;
+        try {
+            repoUri = featuresService.getRepositoryUriFor(repositorySpec, null);
+        } catch (Exception e) {
+            logger.warn("Can't get repo by name {}", repositorySpec, e);
+        }
+        if (generation.get() == lookupGeneration) {
+            // Otherwise repositories changed during lookup and result may be stale already
+            names.put(repositorySpec, new Entry(repoUri, System.nanoTime()));
+        }
+        return repoUri;
+    }
+
+    /**
+     * Caches names resolved elsewhere, e.g. on node snapshot was taken at.
+     */
+    void seed(final Map<String, URI> resolved) {
+        for (Map.Entry<String, URI> name : resolved.entrySet()) {
+            names.put(name.getKey(), new Entry(name.getValue(), System.nanoTime()));
+        }
+    }
+
+    /**
+     * Drops all cached names, called when Karaf repositories change.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        names.clear();
+    }
+
+    private static final class Entry {
+        private final URI uri;
+        private final long resolvedAt;
+
+        private Entry(final URI uri, final long resolvedAt) {
+            this.uri = uri;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
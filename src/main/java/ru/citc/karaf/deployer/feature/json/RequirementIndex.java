@@ -0,0 +1,58 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.felix.utils.version.VersionRange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Snapshot of Karaf feature requirements indexed by region and feature name with pre-parsed version ranges, so
+ * checking a requirement is a hash lookup plus range intersection.
+ */
+final class RequirementIndex {
+    private final Map<String, Map<String, List<VersionRange>>> regions;
+
+    private RequirementIndex(final Map<String, Map<String, List<VersionRange>>> regions) {
+        this.regions = regions;
+    }
+
+    /**
+     * @param requirements Karaf requirements by region, as returned by
+     *                     {@link org.apache.karaf.features.FeaturesService#listRequirements()}
+     */
+    static RequirementIndex of(final Map<String, Set<String>> requirements) {
+        final Map<String, Map<String, List<VersionRange>>> regions = new HashMap<>();
+        for (Map.Entry<String, Set<String>> regionToReqs : requirements.entrySet()) {
+            final Map<String, List<VersionRange>> byName = new HashMap<>();
+            for (String reqSpec : regionToReqs.getValue()) {
+                final FeatureRequirement requirement = FeatureRequirement.parse(reqSpec);
+                if (requirement != null) {
+                    byName.computeIfAbsent(requirement.getName(), key -> new ArrayList<>(1))
+                            .add(requirement.getVersion());
+                }
+            }
+            regions.put(regionToReqs.getKey(), byName);
+        }
+        return new RequirementIndex(regions);
+    }
+
+    /**
+     * @return {@code true} if region has requirement of the same feature with intersecting version range
+     */
+    boolean isSatisfied(final String region, final FeatureRequirement requested) {
+        final List<VersionRange> actualRanges = regions.getOrDefault(region, Collections.emptyMap())
+                .get(requested.getName());
+        if (actualRanges != null) {
+            for (VersionRange actualRange : actualRanges) {
+                if (requested.getVersion().intersect(actualRange) != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Reference;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.apache.karaf.shell.support.table.ShellTable;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+@Command(scope = "json-feature", name = "slowest", description = "Lists slowest recent JSON feature deployments")
+@Service
+public class SlowestDeploymentsCommand implements Action {
+    @Option(name = "-n", aliases = "--count", description = "Number of deployments to list (default 10)")
+    int count = 10;
+
+    @Reference
+    DeploymentHistory history;
+
+    @Override
+    public Object execute() {
+        if (count < 1) {
+            throw new IllegalArgumentException("Usage: json-feature:slowest [-n <count>], count must be positive, got " + count);
+        }
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        final ShellTable table = new ShellTable();
+        table.column("ID").alignRight();
+        table.column("Bundle");
+        table.column("Started");
+        table.column("Total ms").alignRight();
+        table.column("Slowest phase");
+        table.column("Phase ms").alignRight();
+        table.column("State");
+        for (DeploymentTimeline timeline : history.getSlowest(count)) {
+            final DeployerMetrics.Phase phase = timeline.getSlowestPhase();
+            table.addRow().addContent(
+                    timeline.getBundleId(),
+                    timeline.getBundleName(),
+                    format.format(new Date(timeline.getStartedAt())),
+                    DeploymentTimeline.millis(timeline.getTotalNanos()),
+                    phase == null ? "" : phase.name().toLowerCase(Locale.ENGLISH),
+                    phase == null ? "" : DeploymentTimeline.millis(timeline.getPhaseNanos(phase)),
+                    timeline.getOutcome());
+        }
+        table.print(System.out);
+        return null;
+    }
+}
@@ -0,0 +1,14 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Exports resolved deployer state for warm start of nodes with the same descriptor bundles.
+ */
+public interface SnapshotExporter {
+    /**
+     * Writes merged repository URIs, requirements and descriptor fingerprints of applied descriptors to file.
+     */
+    void exportSnapshot(File file) throws IOException;
+}
@@ -0,0 +1,310 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+/**
+ * Applied descriptors of all bundles, kept in memory and persisted to single append-only journal.
+ * <p>
+ * Each journal line is {@code <crc32> <json>} with one committed change set, so a commit is atomic: line torn by
+ * crash fails checksum and is dropped on load with everything after it. Record failed to write is truncated, or
+ * journal is rewritten before the next one when truncation fails too. Journal is rewritten to a snapshot of current
+ * states when it grows too long, failed rewrite is retried on the next commit.
+ */
+final class StateStore implements Closeable {
+    static final String JOURNAL_FILE = "states.journal";
+    static final String LEGACY_STATE_PREFIX = "bundle_";
+    static final String LEGACY_STATE_SUFFIX = ".features.json";
+    private static final String FIELD_STATES = "states";
+    private static final int MIN_COMPACTION_RECORDS = 64;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path directory;
+    private final Path journal;
+    private final Map<Long, FeaturesDescriptor> states = new ConcurrentHashMap<>();
+    private final UnaryOperator<FileChannel> channels;
+    private FileChannel channel;
+    private int records;
+    // Journal may end with torn record, it must be compacted before appending
+    private boolean dirty;
+
+    StateStore(final File directory) {
+        this(directory, UnaryOperator.identity());
+    }
+
+    /**
+     * @param channels applied to each opened journal channel
+     */
+    StateStore(final File directory, final UnaryOperator<FileChannel> channels) {
+        this.directory = directory.toPath();
+        this.journal = this.directory.resolve(JOURNAL_FILE);
+        this.channels = channels;
+    }
+
+    /**
+     * Loads journal, or migrates per-bundle state files of previous versions when there is no journal yet.
+     *
+     * @throws IOException if journal can't be read or some state file of previous version can't be migrated, the
+     *                     state files are then kept and migrated on next open
+     */
+    void open() throws IOException {
+        if (Files.exists(journal)) {
+            load();
+        } else {
+            migrate();
+        }
+        channel = channels.apply(FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND));
+    }
+
+    FeaturesDescriptor get(final long bundleId) {
+        return states.get(bundleId);
+    }
+
+    /**
+     * @return fingerprint of applied descriptor or {@code null} if bundle has no state
+     */
+    String fingerprint(final long bundleId) {
+        final FeaturesDescriptor descriptor = states.get(bundleId);
+        return descriptor == null ? null : descriptor.fingerprint();
+    }
+
+    Set<Long> bundleIds() {
+        return Collections.unmodifiableSet(states.keySet());
+    }
+
+    /**
+     * Durably stores changed states in one record.
+     *
+     * @param changes new descriptors by bundle id, {@code null} value removes bundle state
+     */
+    synchronized void commit(final Map<Long, FeaturesDescriptor> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (dirty) {
+            compact();
+        }
+        final long size = channel.size();
+        try {
+            write(channel, changes);
+            channel.force(false);
+        } catch (IOException e) {
+            discardTail(size);
+            throw e;
+        }
+        records++;
+        for (Map.Entry<Long, FeaturesDescriptor> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                states.remove(change.getKey());
+            } else {
+                states.put(change.getKey(), change.getValue());
+            }
+        }
+        if (records > Math.max(MIN_COMPACTION_RECORDS, states.size())) {
+            // Record is durable already, so failed compaction is only retried before the next one
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.warn("Can't compact state journal {}, retried on next commit", journal, e);
+                dirty = true;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Drops partially written record, so records appended later are not lost behind it on load.
+     */
+    private void discardTail(final long size) {
+        try {
+            channel.truncate(size);
+            channel.force(false);
+        } catch (IOException e) {
+            logger.warn("Can't truncate state journal {} after failed write, it is rewritten on next commit",
+                    journal, e);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Atomically replaces journal with single record holding current states.
+     */
+    private void compact() throws IOException {
+        final Path tmp = directory.resolve(JOURNAL_FILE + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (!states.isEmpty()) {
+                write(tmpChannel, states);
+            }
+            tmpChannel.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, journal, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        channel = channels.apply(FileChannel.open(journal, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        records = states.isEmpty() ? 0 : 1;
+        dirty = false;
+        logger.debug("State journal compacted, {} bundle states", states.size());
+    }
+
+    private void load() throws IOException {
+        final byte[] content = Files.readAllBytes(journal);
+        int lineStart = 0;
+        while (lineStart < content.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < content.length && content[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (lineEnd == content.length || !applyRecord(new String(content, lineStart, lineEnd - lineStart,
+                    StandardCharsets.UTF_8))) {
+                break;
+            }
+            records++;
+            lineStart = lineEnd + 1;
+        }
+        if (lineStart < content.length) {
+            logger.warn("State journal {} has incomplete or corrupted tail at {}, dropped {} bytes", journal,
+                    lineStart, content.length - lineStart);
+            try (FileChannel truncated = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                truncated.truncate(lineStart);
+                truncated.force(true);
+            }
+        }
+    }
+
+    private boolean applyRecord(final String line) {
+        final int separator = line.indexOf(' ');
+        if (separator < 0) {
+            return false;
+        }
+        final String json = line.substring(separator + 1);
+        if (!line.substring(0, separator).equals(checksum(json))) {
+            return false;
+        }
+        try {
+            final JsonReader reader = new JsonReader(new StringReader(json));
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!FIELD_STATES.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final Long bundleId = Long.valueOf(reader.nextName());
+                    if (reader.peek() == JsonReader.Token.NULL) {
+                        reader.nextNull();
+                        states.remove(bundleId);
+                    } else {
+                        states.put(bundleId, FeaturesDescriptor.read(reader));
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+            reader.endDocument();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Invalid state journal record: {}", line, e);
+            return false;
+        }
+    }
+
+    private void migrate() throws IOException {
+        final File[] legacyFiles = directory.toFile().listFiles((dir, name) ->
+                name.startsWith(LEGACY_STATE_PREFIX) && name.endsWith(LEGACY_STATE_SUFFIX));
+        if (legacyFiles == null || legacyFiles.length == 0) {
+            return;
+        }
+        final Map<File, Long> migrated = new LinkedHashMap<>();
+        for (File legacyFile : legacyFiles) {
+            final String name = legacyFile.getName();
+            try (Reader reader = new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8)) {
+                final Long bundleId = Long.valueOf(name.substring(LEGACY_STATE_PREFIX.length(),
+                        name.length() - LEGACY_STATE_SUFFIX.length()));
+                states.put(bundleId, FeaturesDescriptor.read(reader));
+                migrated.put(legacyFile, bundleId);
+            } catch (IOException | RuntimeException e) {
+                // Skipped file would never be migrated once journal exists, and its requirements never removed
+                throw new IOException("Can't migrate state file " + legacyFile + ", fix or remove it", e);
+            }
+        }
+        compact();
+        channel.close();
+        channel = null;
+        for (File legacyFile : migrated.keySet()) {
+            Files.delete(legacyFile.toPath());
+        }
+        logger.info("Migrated {} bundle state files to {}", migrated.size(), journal);
+    }
+
+    private void syncDirectory() {
+        // Not supported on every platform, rename is still atomic there
+        try (FileChannel dirChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dirChannel.force(true);
+        } catch (IOException e) {
+            logger.trace("Can't sync directory {}", directory, e);
+        }
+    }
+
+    private static void write(final FileChannel target, final Map<Long, FeaturesDescriptor> changes)
+            throws IOException {
+        final StringWriter writer = new StringWriter();
+        final JsonWriter json = new JsonWriter(writer);
+        json.beginObject().name(FIELD_STATES).beginObject();
+        for (Map.Entry<Long, FeaturesDescriptor> change : changes.entrySet()) {
+            json.name(String.valueOf(change.getKey()));
+            if (change.getValue() == null) {
+                json.nullValue();
+            } else {
+                change.getValue().write(json);
+            }
+        }
+        json.endObject().endObject();
+        final String record = writer.toString();
+        final ByteBuffer buffer = ByteBuffer.wrap((checksum(record) + ' ' + record + '\n')
+                .getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private static String checksum(final String json) {
+        final CRC32 crc = new CRC32();
+        crc.update(json.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
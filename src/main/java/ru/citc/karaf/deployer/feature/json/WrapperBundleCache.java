@@ -0,0 +1,73 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of generated wrapper bundles keyed by source URL and source content hash, bounded by total size of
+ * cached bundles.
+ */
+final class WrapperBundleCache {
+    private final long maxBytes;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    WrapperBundleCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return largest bundle worth caching
+     */
+    long getMaxEntryBytes() {
+        return maxBytes / 4;
+    }
+
+    /**
+     * @return cached bundle content or {@code null}
+     */
+    synchronized InputStream get(final String sourceUrl, final byte[] sourceHash) {
+        final Entry entry = entries.get(sourceUrl);
+        if (entry == null || !Arrays.equals(entry.sourceHash, sourceHash)) {
+            return null;
+        }
+        return new ByteArrayInputStream(entry.content, 0, entry.length);
+    }
+
+    /**
+     * Caches bundle, replacing one generated from previous content of the same source.
+     *
+     * @param content buffer with bundle in first {@code length} bytes, must not be modified after call
+     */
+    synchronized void put(final String sourceUrl, final byte[] sourceHash, final byte[] content, final int length) {
+        if (length > getMaxEntryBytes()) {
+            return;
+        }
+        final Entry previous = entries.put(sourceUrl, new Entry(sourceHash, content, length));
+        if (previous != null) {
+            totalBytes -= previous.length;
+        }
+        totalBytes += length;
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            totalBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final byte[] sourceHash;
+        private final byte[] content;
+        private final int length;
+
+        private Entry(final byte[] sourceHash, final byte[] content, final int length) {
+            this.sourceHash = sourceHash;
+            this.content = content;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.felix.utils.manifest.Clause;
+import org.apache.felix.utils.manifest.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks headers of the packaged bundle, run in integration-test phase.
+ */
+public class BundleManifestIT {
+    @Test
+    public void shellCommandsRegistered() throws IOException {
+        final Attributes headers = manifest();
+        // without it the shell extender ignores export-snapshot and the other actions
+        assertThat(headers.getValue("Karaf-Commands"), equalTo("*"));
+        boolean shellImported = false;
+        for (Clause clause : Parser.parseHeader(headers.getValue("Import-Package"))) {
+            if (clause.getName().startsWith("org.apache.karaf.shell.")) {
+                assertThat(clause.getName(), clause.getDirective("resolution"), is("optional"));
+                shellImported = true;
+            }
+        }
+        assertTrue("Shell packages not imported", shellImported);
+    }
+
+    private static Attributes manifest() throws IOException {
+        try (JarFile bundle = new JarFile(System.getProperty("bundle.file"))) {
+            return bundle.getManifest().getMainAttributes();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeployerMetricsTest {
+    @Test
+    public void histogramQuantiles() {
+        final DeployerMetrics.Histogram histogram = new DeployerMetrics.Histogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1_000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1_000_000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(1_000_000L, histogram.getMaxNanos());
+        assertEquals(1023L, histogram.getQuantileNanos(0.5));
+        assertEquals(1023L, histogram.getQuantileNanos(0.9));
+        assertEquals((1L << 20) - 1, histogram.getQuantileNanos(0.99));
+        assertEquals(90, histogram.getBuckets()[9]);
+    }
+
+    @Test
+    public void mbeanPhases() throws Exception {
+        final DeployerMetrics metrics = new DeployerMetrics(() -> 3);
+        metrics.record(DeployerMetrics.Phase.DIFF, 5_000_000L);
+        metrics.failed();
+        final DeployerMetricsMBean mbean = new DeployerMetricsMBeanImpl(metrics);
+        final CompositeData diff = mbean.getPhases().get(new Object[]{"diff"});
+        assertEquals(1L, diff.get("count"));
+        assertEquals(1L, mbean.getFailures());
+        assertEquals(3, mbean.getQueueDepth());
+        mbean.reset();
+        assertEquals(0L, mbean.getFailures());
+    }
+}
@@ -0,0 +1,56 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.bundle.core.BundleState;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertThat;
+
+public class DeploymentHistoryImplTest {
+    @Test
+    public void keepsRecentPerBundle() {
+        final DeploymentHistoryImpl history = new DeploymentHistoryImpl(2);
+        history.record(timeline(1, 30));
+        history.record(timeline(1, 10));
+        history.record(timeline(1, 20));
+        history.record(timeline(2, 15));
+        assertThat(totals(history.get(1)), contains(10L, 20L));
+        assertThat(totals(history.getSlowest(2)), contains(20L, 15L));
+        history.remove(1);
+        assertThat(totals(history.getSlowest(10)), contains(15L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveCount() {
+        new DeploymentHistoryImpl(2).getSlowest(-1);
+    }
+
+    @Test
+    public void renderTimeline() {
+        final long[] phases = new long[DeployerMetrics.Phase.values().length];
+        Arrays.fill(phases, DeploymentTimeline.NOT_RUN);
+        phases[DeployerMetrics.Phase.WAIT_FINISH.ordinal()] = 2_000_000L;
+        final DeploymentTimeline timeline = new DeploymentTimeline(1, "app", 0, phases, 3_000_000L,
+                Collections.singletonList("+ root feature:app/0.0.0"),
+                Collections.singleton(FeatureRequirement.parse("feature:diag-app/[1,2)")), BundleState.Failure, null);
+        final StringBuilder diag = new StringBuilder();
+        timeline.render(diag);
+        assertThat(diag.toString(), containsString("Failure in 3.000 ms: wait_finish=2.000"));
+        assertThat(diag.toString(), containsString("unsatisfied: [feature:diag-app/[1.0.0,2.0.0)]"));
+    }
+
+    private static DeploymentTimeline timeline(final long bundleId, final long totalNanos) {
+        return new DeploymentTimeline(bundleId, "bundle " + bundleId, 0,
+                new long[DeployerMetrics.Phase.values().length], totalNanos, Collections.emptyList(), Collections.emptySet(), BundleState.Active, null);
+    }
+
+    private static List<Long> totals(final List<DeploymentTimeline> timelines) {
+        return timelines.stream().map(DeploymentTimeline::getTotalNanos).collect(Collectors.toList());
+    }
+}
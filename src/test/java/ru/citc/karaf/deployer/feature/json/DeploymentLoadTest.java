@@ -0,0 +1,208 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays storms of descriptor bundle events against in-memory Karaf stand-in with and without batching, checks
+ * number of Karaf deployments and writes end-to-end latency (bundle event to requirements change in Karaf) to
+ * {@code target/load-test-report.txt}. Takes seconds, excluded from default build, run by {@code mvn test -Pload}.
+ */
+public class DeploymentLoadTest {
+    private static final String REGION = "root";
+    private static final int BUNDLES = 500;
+    private static final long RESOLUTION_DELAY = 2L;
+    private static final long STORM_TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FeatureDeploymentListener listener;
+
+    @After
+    public void tearDown() {
+        stopListener();
+    }
+
+    @Test
+    public void churn() throws Exception {
+        final Report unbatched = churn(new DeployerConfig());
+        final Report batched = churn(new DeployerConfig().setBatchWindow(20));
+        final String report = unbatched + "\n" + batched + "\n";
+        // Latencies depend on the machine, so they are only reported
+        final File file = new File(System.getProperty("load.report", "target/load-test-report.txt"));
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), report.getBytes(StandardCharsets.UTF_8));
+
+        // Every event is deployed on its own without batching
+        assertEquals(report, 3 * BUNDLES, unbatched.deployments);
+        assertThat(report, batched.deployments, lessThan(unbatched.deployments / 10));
+        assertEquals(report, unbatched.deployments, unbatched.updates);
+        assertEquals(report, batched.deployments, batched.updates);
+    }
+
+    private void stopListener() {
+        if (listener != null) {
+            listener.stop();
+            listener = null;
+        }
+    }
+
+    /**
+     * Installs, updates and uninstalls {@link #BUNDLES} descriptor bundles.
+     */
+    private Report churn(final DeployerConfig config) throws Exception {
+        final FakeFeaturesService karaf = new FakeFeaturesService().setResolutionDelay(RESOLUTION_DELAY);
+        final FakeBundleContext context = new FakeBundleContext(folder.newFolder());
+        listener = new FeatureDeploymentListener(karaf.service(), context.context(), config);
+        listener.start();
+        // Bundles installed while reconcile lists them would be deployed together
+        context.awaitListed();
+        final List<FakeBundle> bundles = new ArrayList<>();
+        final Report report = new Report(config, karaf);
+
+        final Storm install = new Storm("install");
+        for (int i = 0; i < BUNDLES; i++) {
+            final String feature = "app-" + i;
+            install.emit(() -> karaf.isRequired(REGION, feature));
+            bundles.add(context.install(descriptor(feature)));
+        }
+        report.add(install.await());
+
+        final Storm update = new Storm("update");
+        for (int i = 0; i < BUNDLES; i++) {
+            final String previous = "app-" + i;
+            final String feature = "app-" + i + "-v2";
+            update.emit(() -> karaf.isRequired(REGION, feature)
+                    && !karaf.isRequired(REGION, previous));
+            context.update(bundles.get(i), descriptor(feature));
+        }
+        report.add(update.await());
+
+        final Storm uninstall = new Storm("uninstall");
+        for (int i = 0; i < BUNDLES; i++) {
+            final String feature = "app-" + i + "-v2";
+            uninstall.emit(() -> !karaf.isRequired(REGION, feature));
+            context.uninstall(bundles.get(i));
+        }
+        report.add(uninstall.await());
+        report.complete();
+        stopListener();
+        return report;
+    }
+
+    private static String descriptor(final String feature) {
+        return "{\"featuresRequirementsVersion\": \"1.0\", \"features\": {\"" + REGION + "\": [{\"name\": \""
+                + feature + "\"}]}}";
+    }
+
+    /**
+     * Burst of bundle events, each done when its condition holds.
+     */
+    private static final class Storm {
+        private final String name;
+        private final Map<BooleanSupplier, Long> pending = new LinkedHashMap<>();
+        private final List<Long> latencies = new ArrayList<>();
+        private long started;
+        private long finished;
+
+        private Storm(final String name) {
+            this.name = name;
+        }
+
+        private void emit(final BooleanSupplier done) {
+            final long now = System.nanoTime();
+            if (pending.isEmpty()) {
+                started = now;
+            }
+            pending.put(done, now);
+        }
+
+        private Storm await() throws InterruptedException {
+            final long deadline = System.nanoTime() + STORM_TIMEOUT;
+            while (!pending.isEmpty()) {
+                assertTrue(name + " storm not finished, pending " + pending.size(), System.nanoTime() < deadline);
+                final Iterator<Map.Entry<BooleanSupplier, Long>> events = pending.entrySet().iterator();
+                while (events.hasNext()) {
+                    final Map.Entry<BooleanSupplier, Long> event = events.next();
+                    if (event.getKey().getAsBoolean()) {
+                        finished = System.nanoTime();
+                        latencies.add(finished - event.getValue());
+                        events.remove();
+                    }
+                }
+                Thread.sleep(1);
+            }
+            return this;
+        }
+
+        private long percentile(final long[] sorted, final double fraction) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * fraction) - 1)];
+        }
+
+        private String summary() {
+            final long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            final double seconds = (finished - started) / (double) TimeUnit.SECONDS.toNanos(1);
+            return String.format(Locale.ENGLISH, "%-9s %5d events %8.1f events/s, latency ms p50 %7.1f p90 %7.1f "
+                            + "p99 %7.1f max %7.1f", name, sorted.length, sorted.length / seconds,
+                    millis(percentile(sorted, 0.5)), millis(percentile(sorted, 0.9)),
+                    millis(percentile(sorted, 0.99)), millis(sorted[sorted.length - 1]));
+        }
+
+        private static double millis(final long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+    }
+
+    private static final class Report {
+        private final DeployerConfig config;
+        private final FakeFeaturesService karaf;
+        private final List<Storm> storms = new ArrayList<>();
+        private int deployments;
+        private int updates;
+
+        private Report(final DeployerConfig config, final FakeFeaturesService karaf) {
+            this.config = config;
+            this.karaf = karaf;
+        }
+
+        private void add(final Storm storm) {
+            storms.add(storm);
+        }
+
+        private void complete() {
+            deployments = karaf.getDeployments();
+            updates = karaf.getUpdates();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder report = new StringBuilder("Batch window ").append(config.getBatchWindow())
+                    .append(" ms, resolution delay ").append(RESOLUTION_DELAY).append(" ms, ").append(deployments)
+                    .append(" Karaf deployments of ").append(updates).append(" updates");
+            for (Storm storm : storms) {
+                report.append("\n  ").append(storm.summary());
+            }
+            return report.toString();
+        }
+    }
+}
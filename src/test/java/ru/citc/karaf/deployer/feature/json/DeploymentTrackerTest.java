@@ -0,0 +1,51 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.DeploymentEvent;
+import org.junit.Test;
+
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeploymentTrackerTest {
+    private final DeploymentTracker tracker = new DeploymentTracker();
+
+    @Test
+    public void eventsBeforeAwait() throws Exception {
+        try (DeploymentTracker.Deployment deployment = tracker.begin()) {
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED);
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED);
+            assertTrue(deployment.await(0L, 1L));
+        }
+    }
+
+    @Test
+    public void notStarted() throws Exception {
+        try (DeploymentTracker.Deployment deployment = tracker.begin()) {
+            assertFalse(deployment.await(0L, 0L));
+            assertFalse(deployment.await(10L, 0L));
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void notFinished() throws Exception {
+        try (DeploymentTracker.Deployment deployment = tracker.begin()) {
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED);
+            deployment.await(0L, 10L);
+        }
+    }
+
+    @Test
+    public void eventsGoToOwnDeployment() throws Exception {
+        try (DeploymentTracker.Deployment first = tracker.begin();
+             DeploymentTracker.Deployment second = tracker.begin()) {
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED);
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED);
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_STARTED);
+            assertTrue(first.await(0L, 1L));
+            tracker.deploymentEvent(DeploymentEvent.DEPLOYMENT_FINISHED);
+            assertTrue(second.await(0L, 1L));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DescriptorDeltaTest {
+    @Test
+    public void editProducesFineGrainedDelta() throws IOException {
+        final FeaturesDescriptor from = read("[\"repo-a\", \"repo-b\"]",
+                "{\"name\": \"kept\"}, {\"name\": \"dropped\"}, {\"name\": \"moved\", \"version\": \"1.0\"}");
+        final FeaturesDescriptor to = read("[\"repo-a\", \"repo-c\"]",
+                "{\"name\": \"kept\"}, {\"name\": \"new\"}, {\"name\": \"moved\", \"version\": \"2.0\"}");
+        final DescriptorDelta delta = DescriptorDelta.of(from, to);
+        assertEquals(Collections.singleton("repo-c"), delta.getAddedRepositories());
+        assertEquals(Collections.singleton("repo-b"), delta.getRemovedRepositories());
+        assertThat(delta.getAddedRequirements().get("root"), containsInAnyOrder(
+                FeatureRequirement.parse("feature:new/0"), FeatureRequirement.parse("feature:moved/[2.0,2.0]")));
+        assertThat(delta.getRemovedRequirements().get("root"), containsInAnyOrder(
+                FeatureRequirement.parse("feature:dropped/0"), FeatureRequirement.parse("feature:moved/[1.0,1.0]")));
+        assertThat(delta.describe(), containsInAnyOrder("+ repository repo-c", "- repository repo-b",
+                "+ root feature:new/0", "- root feature:dropped/0", "~ root feature:moved/[1.0.0,1.0.0] -> [2.0.0,2.0.0]"));
+    }
+
+    @Test
+    public void unchangedDescriptorHasEmptyDelta() throws IOException {
+        final FeaturesDescriptor descriptor = read("[\"repo-a\"]", "{\"name\": \"kept\"}");
+        assertTrue(DescriptorDelta.of(descriptor, read("[\"repo-a\"]", "{\"name\": \"kept\"}")).isEmpty());
+        assertEquals(Collections.singleton("repo-a"), DescriptorDelta.of(null, descriptor).getAddedRepositories());
+        assertEquals(Collections.singleton("repo-a"), DescriptorDelta.of(descriptor, null).getRemovedRepositories());
+    }
+
+    @Test
+    public void unapplyKeepsRetainedRequirements() throws IOException {
+        final FeaturesDescriptor from = read("[]", "{\"name\": \"shared\"}, {\"name\": \"own\"}");
+        final Map<String, Set<String>> karaf = new HashMap<>();
+        karaf.put("root", new HashSet<>(Arrays.asList("feature:shared/0", "feature:own/0", "feature:other/0")));
+        final KarafRequirements requirements = KarafRequirements.of(karaf);
+        DescriptorDelta.of(from, null).unapplyRequirements(requirements,
+                (region, requirement) -> requirement.getName().equals("shared"));
+        assertThat(requirements.toKaraf().get("root"), containsInAnyOrder("feature:shared/0", "feature:other/0"));
+    }
+
+    private static FeaturesDescriptor read(final String repositories, final String features) throws IOException {
+        return FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": \"1.0\", \"repositories\": "
+                + repositories + ", \"features\": {\"root\": [" + features + "]}}"));
+    }
+}
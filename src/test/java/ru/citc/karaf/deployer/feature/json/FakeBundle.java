@@ -0,0 +1,84 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * {@link Bundle} stand-in with optional JSON features descriptor kept in a file.
+ */
+final class FakeBundle {
+    private final long bundleId;
+    private final File descriptorFile;
+    private final Bundle bundle = Fakes.implement(Bundle.class, this);
+    private volatile int state = Bundle.INSTALLED;
+    private volatile long lastModified;
+    private volatile boolean hasDescriptor;
+
+    /**
+     * @param directory where descriptor file is kept
+     */
+    FakeBundle(final long bundleId, final File directory) {
+        this.bundleId = bundleId;
+        this.descriptorFile = new File(directory, "bundle-" + bundleId + ".features.json");
+    }
+
+    Bundle bundle() {
+        return bundle;
+    }
+
+    /**
+     * Replaces bundle content.
+     *
+     * @param descriptor JSON descriptor or {@code null} for bundle without it
+     */
+    void setDescriptor(final String descriptor) throws IOException {
+        hasDescriptor = descriptor != null;
+        if (hasDescriptor) {
+            Files.write(descriptorFile.toPath(), descriptor.getBytes(StandardCharsets.UTF_8));
+        }
+        lastModified++;
+    }
+
+    void setState(final int state) {
+        this.state = state;
+    }
+
+    public long getBundleId() {
+        return bundleId;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public String getSymbolicName() {
+        return "bundle-" + bundleId;
+    }
+
+    public Version getVersion() {
+        return Version.emptyVersion;
+    }
+
+    public URL getResource(final String name) throws MalformedURLException {
+        if (!hasDescriptor || !JsonFeatureURLHandler.JSON_FEATURE_DESCRIPTOR_PATH.equals(name)) {
+            return null;
+        }
+        return descriptorFile.toURI().toURL();
+    }
+
+    @Override
+    public String toString() {
+        return getSymbolicName() + " [" + bundleId + "]";
+    }
+}
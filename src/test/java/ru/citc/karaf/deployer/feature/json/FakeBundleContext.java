@@ -0,0 +1,123 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BundleContext} stand-in with data area in given directory. Installs, updates and uninstalls fake bundles
+ * firing the same bundle events as framework does.
+ */
+final class FakeBundleContext {
+    private final File dataDirectory;
+    private final File bundlesDirectory;
+    private final FakeBundle self;
+    private final Map<Long, FakeBundle> bundles = new ConcurrentHashMap<>();
+    private final List<BundleListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextBundleId = new AtomicLong(1);
+    private final CountDownLatch listed = new CountDownLatch(1);
+    private final BundleContext context = Fakes.implement(BundleContext.class, this);
+
+    FakeBundleContext(final File directory) {
+        this.dataDirectory = new File(directory, "data");
+        this.bundlesDirectory = new File(directory, "bundles");
+        if (!dataDirectory.mkdirs() || !bundlesDirectory.mkdirs()) {
+            throw new IllegalStateException("Can't create directories in " + directory);
+        }
+        this.self = new FakeBundle(0, bundlesDirectory);
+        self.setState(Bundle.ACTIVE);
+        bundles.put(0L, self);
+    }
+
+    BundleContext context() {
+        return context;
+    }
+
+    /**
+     * Installs and resolves bundle.
+     *
+     * @param descriptor JSON descriptor or {@code null} for bundle without it
+     */
+    FakeBundle install(final String descriptor) throws IOException {
+        final FakeBundle bundle = new FakeBundle(nextBundleId.getAndIncrement(), bundlesDirectory);
+        bundle.setDescriptor(descriptor);
+        bundles.put(bundle.getBundleId(), bundle);
+        fire(BundleEvent.INSTALLED, bundle);
+        bundle.setState(Bundle.RESOLVED);
+        fire(BundleEvent.RESOLVED, bundle);
+        return bundle;
+    }
+
+    void update(final FakeBundle bundle, final String descriptor) throws IOException {
+        bundle.setState(Bundle.INSTALLED);
+        fire(BundleEvent.UNRESOLVED, bundle);
+        bundle.setDescriptor(descriptor);
+        fire(BundleEvent.UPDATED, bundle);
+        bundle.setState(Bundle.RESOLVED);
+        fire(BundleEvent.RESOLVED, bundle);
+    }
+
+    void uninstall(final FakeBundle bundle) {
+        bundle.setState(Bundle.INSTALLED);
+        fire(BundleEvent.UNRESOLVED, bundle);
+        bundle.setState(Bundle.UNINSTALLED);
+        bundles.remove(bundle.getBundleId());
+        fire(BundleEvent.UNINSTALLED, bundle);
+    }
+
+    public File getDataFile(final String name) {
+        return new File(dataDirectory, name);
+    }
+
+    public Bundle getBundle() {
+        return self.bundle();
+    }
+
+    public Bundle getBundle(final long bundleId) {
+        final FakeBundle bundle = bundles.get(bundleId);
+        return bundle == null ? null : bundle.bundle();
+    }
+
+    public Bundle[] getBundles() {
+        try {
+            return bundles.values().stream().map(FakeBundle::bundle).toArray(Bundle[]::new);
+        } finally {
+            listed.countDown();
+        }
+    }
+
+    /**
+     * Waits until installed bundles are listed first time, bundles installed later are known by events only.
+     */
+    void awaitListed() throws InterruptedException {
+        if (!listed.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Bundles are not listed");
+        }
+    }
+
+    public void addBundleListener(final BundleListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeBundleListener(final BundleListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fire(final int type, final FakeBundle bundle) {
+        final BundleEvent event = new BundleEvent(type, bundle.bundle());
+        for (BundleListener listener : listeners) {
+            listener.bundleChanged(event);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.DeploymentEvent;
+import org.apache.karaf.features.DeploymentListener;
+import org.apache.karaf.features.Feature;
+import org.apache.karaf.features.FeaturesListener;
+import org.apache.karaf.features.FeaturesService;
+import org.apache.karaf.features.Repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory {@link FeaturesService} stand-in: keeps required repositories and requirements, deploys changes
+ * synchronously with simulated resolution delay and emits {@link DeploymentEvent}s like Karaf 4.2 does.
+ */
+final class FakeFeaturesService {
+    private final List<DeploymentListener> deploymentListeners = new CopyOnWriteArrayList<>();
+    private final List<FeaturesListener> featuresListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, URI> repositoryNames = new HashMap<>();
+    private final Map<URI, Map<String, String>> repositoryFeatures = new ConcurrentHashMap<>();
+    private final Set<String> unresolvable = Collections.synchronizedSet(new HashSet<>());
+    private final Set<String> missing = Collections.synchronizedSet(new HashSet<>());
+    private final AtomicInteger simulations = new AtomicInteger();
+    private final AtomicInteger deployments = new AtomicInteger();
+    private final AtomicInteger updates = new AtomicInteger();
+    private final Set<URI> loadedRepositories = Collections.synchronizedSet(new HashSet<>());
+    private final List<Map<String, Set<String>>> deployed = new CopyOnWriteArrayList<>();
+    private final FeaturesService service = Fakes.implement(FeaturesService.class, this);
+    private volatile Set<URI> repositories = Collections.emptySet();
+    private volatile Map<String, Set<String>> requirements = Collections.emptyMap();
+    private volatile long resolutionDelay;
+    private volatile Set<FeaturesService.Option> lastOptions;
+
+    FeaturesService service() {
+        return service;
+    }
+
+    /**
+     * @param resolutionDelay milliseconds each deployment takes
+     */
+    FakeFeaturesService setResolutionDelay(final long resolutionDelay) {
+        this.resolutionDelay = resolutionDelay;
+        return this;
+    }
+
+    FakeFeaturesService addRepositoryName(final String name, final URI uri) {
+        synchronized (repositoryNames) {
+            repositoryNames.put(name, uri);
+        }
+        return this;
+    }
+
+    /**
+     * Declares feature version provided by repository.
+     */
+    FakeFeaturesService addFeature(final URI repository, final String name, final String version) {
+        repositoryFeatures.computeIfAbsent(repository, key -> new ConcurrentHashMap<>()).put(name, version);
+        return this;
+    }
+
+    /**
+     * Requirements of feature with given name are accepted but not provisioned, as Karaf does on resolution failure.
+     */
+    FakeFeaturesService addUnresolvable(final String featureName) {
+        unresolvable.add(featureName);
+        return this;
+    }
+
+    /**
+     * Requirements of feature with given name fail deployment and simulation, as Karaf does for unknown feature.
+     */
+    FakeFeaturesService addMissing(final String featureName) {
+        missing.add(featureName);
+        return this;
+    }
+
+    int getSimulations() {
+        return simulations.get();
+    }
+
+    int getDeployments() {
+        return deployments.get();
+    }
+
+    /**
+     * @return number of requirements updates requested, including ones changing nothing
+     */
+    int getUpdates() {
+        return updates.get();
+    }
+
+    /**
+     * @return options of last deployment
+     */
+    Set<FeaturesService.Option> getLastOptions() {
+        return lastOptions;
+    }
+
+    /**
+     * @return repositories loaded by {@link #createRepository}
+     */
+    Set<URI> getLoadedRepositories() {
+        return loadedRepositories;
+    }
+
+    /**
+     * @return requirements of each deployment in order
+     */
+    List<Map<String, Set<String>>> getDeployedRequirements() {
+        return deployed;
+    }
+
+    /**
+     * @return {@code true} if region holds requirement on feature with given name
+     */
+    boolean isRequired(final String region, final String featureName) {
+        for (String requirement : requirements.getOrDefault(region, Collections.emptySet())) {
+            final FeatureRequirement parsed = FeatureRequirement.parse(requirement);
+            if (parsed != null && parsed.getName().equals(featureName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized Repository[] listRequiredRepositories() {
+        return repositories.stream()
+                .map(this::repository)
+                .toArray(Repository[]::new);
+    }
+
+    public Repository[] listRepositories() {
+        return listRequiredRepositories();
+    }
+
+    public synchronized Map<String, Set<String>> listRequirements() {
+        final Map<String, Set<String>> copy = new HashMap<>();
+        requirements.forEach((region, reqs) -> copy.put(region, new HashSet<>(reqs)));
+        return copy;
+    }
+
+    public URI getRepositoryUriFor(final String name, final String version) {
+        synchronized (repositoryNames) {
+            return repositoryNames.get(name);
+        }
+    }
+
+    /**
+     * Reads repository content, failing like Karaf when it can't be loaded.
+     */
+    public Repository createRepository(final URI uri) throws IOException {
+        try (InputStream is = uri.toURL().openStream()) {
+            while (is.read() >= 0) {
+                // Read it all
+            }
+        }
+        loadedRepositories.add(uri);
+        return repository(uri);
+    }
+
+    public synchronized void updateReposAndRequirements(final Set<URI> repos,
+                                                        final Map<String, Set<String>> reqs,
+                                                        final EnumSet<FeaturesService.Option> options)
+            throws InterruptedException {
+        // As Karaf, repositories are saved before resolution, by failing deployment and simulation too
+        final boolean repositoriesChanged = !repos.equals(repositories);
+        repositories = new LinkedHashSet<>(repos);
+        final Map<String, Set<String>> provisioned = new HashMap<>();
+        for (Map.Entry<String, Set<String>> regionReqs : reqs.entrySet()) {
+            final Set<String> kept = new LinkedHashSet<>();
+            for (String requirement : regionReqs.getValue()) {
+                final FeatureRequirement parsed = FeatureRequirement.parse(requirement);
+                if (parsed != null && missing.contains(parsed.getName())) {
+                    throw new IllegalArgumentException("No matching features for " + parsed);
+                }
+                if (parsed == null || !unresolvable.contains(parsed.getName())) {
+                    kept.add(requirement);
+                }
+            }
+            if (!kept.isEmpty()) {
+                provisioned.put(regionReqs.getKey(), kept);
+            }
+        }
+        if (options.contains(FeaturesService.Option.Simulate)) {
+            simulations.incrementAndGet();
+            return;
+        }
+        updates.incrementAndGet();
+        if (!repositoriesChanged && provisioned.equals(requirements)) {
+            return;
+        }
+        fire(DeploymentEvent.DEPLOYMENT_STARTED);
+        if (resolutionDelay > 0) {
+            Thread.sleep(resolutionDelay);
+        }
+        requirements = provisioned;
+        deployed.add(provisioned);
+        lastOptions = EnumSet.copyOf(options);
+        deployments.incrementAndGet();
+        fire(DeploymentEvent.DEPLOYMENT_FINISHED);
+    }
+
+    public void registerListener(final DeploymentListener listener) {
+        deploymentListeners.add(listener);
+    }
+
+    public void unregisterListener(final DeploymentListener listener) {
+        deploymentListeners.remove(listener);
+    }
+
+    public void registerListener(final FeaturesListener listener) {
+        featuresListeners.add(listener);
+    }
+
+    public void unregisterListener(final FeaturesListener listener) {
+        featuresListeners.remove(listener);
+    }
+
+    private Repository repository(final URI uri) {
+        return Fakes.implement(Repository.class, new FakeRepository(uri,
+                repositoryFeatures.getOrDefault(uri, Collections.emptyMap())));
+    }
+
+    private void fire(final DeploymentEvent event) {
+        for (DeploymentListener listener : deploymentListeners) {
+            listener.deploymentEvent(event);
+        }
+    }
+
+    static final class FakeRepository {
+        private final URI uri;
+        private final Map<String, String> features;
+
+        FakeRepository(final URI uri, final Map<String, String> features) {
+            this.uri = uri;
+            this.features = features;
+        }
+
+        public URI getURI() {
+            return uri;
+        }
+
+        public String getName() {
+            return uri.toString();
+        }
+
+        public URI[] getRepositories() {
+            return new URI[0];
+        }
+
+        public Feature[] getFeatures() {
+            return features.entrySet().stream()
+                    .map(feature -> new FakeFeature(feature.getKey(), feature.getValue()))
+                    .map(feature -> Fakes.implement(Feature.class, feature))
+                    .toArray(Feature[]::new);
+        }
+    }
+
+    static final class FakeFeature {
+        private final String name;
+        private final String version;
+
+        FakeFeature(final String name, final String version) {
+            this.name = name;
+            this.version = version;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+    }
+}
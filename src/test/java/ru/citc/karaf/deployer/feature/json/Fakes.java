@@ -0,0 +1,38 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Implements wide framework interfaces by stand-ins having only methods tests need.
+ */
+final class Fakes {
+    private Fakes() {
+    }
+
+    /**
+     * @return proxy calling public method of {@code target} with the same signature, unsupported methods throw
+     * {@link UnsupportedOperationException}
+     */
+    static <T> T implement(final Class<T> type, final Object target) {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    final Method implementation;
+                    try {
+                        implementation = target.getClass().getMethod(method.getName(), method.getParameterTypes());
+                    } catch (NoSuchMethodException e) {
+                        throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    }
+                    implementation.setAccessible(true);
+                    try {
+                        return implementation.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+}
@@ -0,0 +1,294 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.bundle.core.BundleState;
+import org.apache.karaf.features.FeaturesService;
+import org.apache.karaf.features.Repository;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureDeploymentListenerTest {
+    private static final String REGION = "root";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeFeaturesService karaf = new FakeFeaturesService();
+    private FakeBundleContext context;
+    private FeatureDeploymentListener listener;
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            listener.stop();
+        }
+    }
+
+    @Test
+    public void unchangedDescriptorSkipsKaraf() throws Exception {
+        start(new DeployerConfig());
+        final FakeBundle bundle = context.install(descriptor("app"));
+        awaitState(bundle, BundleState.Active);
+        context.update(bundle, descriptor("app"));
+        final FakeBundle marker = context.install(descriptor("marker"));
+        awaitState(marker, BundleState.Active);
+        assertEquals(BundleState.Active, listener.getState(bundle.bundle()));
+        assertEquals(2, karaf.getDeployments());
+    }
+
+    @Test
+    public void replayOverflowingQueueOnStart() throws Exception {
+        context = new FakeBundleContext(folder.newFolder());
+        final FakeBundle[] bundles = new FakeBundle[5];
+        for (int i = 0; i < bundles.length; i++) {
+            bundles[i] = context.install(descriptor("replay-" + i));
+        }
+        listener = new FeatureDeploymentListener(karaf.service(), context.context(),
+                new DeployerConfig().setReconcileOnStart(false).setQueueCapacity(2));
+        listener.start();
+        for (FakeBundle bundle : bundles) {
+            awaitState(bundle, BundleState.Active);
+        }
+        assertTrue(karaf.isRequired(REGION, "replay-4"));
+    }
+
+    @Test
+    public void preflightRejectsUnresolvable() throws Exception {
+        final File appRepository = folder.newFile("app-features.xml");
+        final File brokenRepository = folder.newFile("broken-features.xml");
+        karaf.addMissing("broken");
+        start(new DeployerConfig().setPreflight(true).setBatchWindow(200));
+        final FakeBundle good = context.install(descriptor("app", appRepository.toURI()));
+        final FakeBundle broken = context.install(descriptor("broken", brokenRepository.toURI()));
+        awaitState(good, BundleState.Active);
+        assertEquals(BundleState.Failure, listener.getState(broken.bundle()));
+        assertTrue(karaf.isRequired(REGION, "app"));
+        assertFalse(karaf.isRequired(REGION, "broken"));
+        assertEquals(1, karaf.getDeployments());
+
+        // Simulation saves repositories, ones of descriptor rejected alone are not left in Karaf
+        final FakeBundle brokenAlone = context.install(descriptor("broken",
+                folder.newFile("broken-alone-features.xml").toURI()));
+        awaitState(brokenAlone, BundleState.Failure);
+        awaitState(context.install(descriptor("preflight-marker")), BundleState.Active);
+        assertEquals(Collections.singletonList(appRepository.toURI()),
+                Arrays.stream(karaf.service().listRequiredRepositories()).map(Repository::getURI)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void sharedRequirementKeptWhileOwned() throws Exception {
+        start(new DeployerConfig());
+        final FakeBundle first = context.install(descriptor("shared"));
+        final FakeBundle second = context.install(descriptor("shared"));
+        awaitState(first, BundleState.Active);
+        awaitState(second, BundleState.Active);
+        context.uninstall(first);
+        final FakeBundle marker = context.install(descriptor("owned-marker"));
+        awaitState(marker, BundleState.Active);
+        assertTrue(karaf.isRequired(REGION, "shared"));
+        assertEquals(2, karaf.getDeployments());
+
+        context.uninstall(second);
+        context.uninstall(marker);
+        final FakeBundle last = context.install(descriptor("owned-last"));
+        awaitState(last, BundleState.Active);
+        assertFalse(karaf.isRequired(REGION, "shared"));
+        assertFalse(karaf.isRequired(REGION, "owned-marker"));
+    }
+
+    @Test
+    public void higherPriorityDeployedFirst() throws Exception {
+        start(new DeployerConfig().setBatchWindow(200));
+        final FakeBundle reporting = context.install(descriptor("reporting"));
+        final FakeBundle ingress = context.install("{\"featuresRequirementsVersion\": \"1.0\", \"priority\": 10, "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"ingress\"}]}}");
+        awaitState(reporting, BundleState.Active);
+        assertEquals(BundleState.Active, listener.getState(ingress.bundle()));
+        assertEquals(2, karaf.getDeployments());
+        assertEquals(Collections.singleton("feature:ingress/0"), karaf.getDeployedRequirements().get(0).get(REGION));
+    }
+
+    @Test
+    public void prefetchRejectsBrokenRepository() throws Exception {
+        final File repository = folder.newFile("features.xml");
+        Files.write(repository.toPath(), "<features name=\"local\"/>".getBytes(StandardCharsets.UTF_8));
+        final URI brokenUri = new File(folder.getRoot(), "missing.xml").toURI();
+        start(new DeployerConfig().setBatchWindow(200).setPrefetchThreads(4));
+        final FakeBundle good = context.install(descriptor("local-app", repository.toURI()));
+        final FakeBundle broken = context.install(descriptor("remote-app", brokenUri));
+        awaitState(good, BundleState.Active);
+        assertEquals(BundleState.Failure, listener.getState(broken.bundle()));
+        assertEquals(Collections.singleton(repository.toURI()), karaf.getLoadedRepositories());
+        assertTrue(karaf.isRequired(REGION, "local-app"));
+        assertFalse(karaf.isRequired(REGION, "remote-app"));
+        assertEquals(1, karaf.getDeployments());
+    }
+
+    @Test
+    public void batchSuppressesRefreshAllAgreeOn() throws Exception {
+        start(new DeployerConfig().setBatchWindow(200));
+        final FakeBundle first = context.install("{\"featuresRequirementsVersion\": \"1.0\", "
+                + "\"options\": [\"NoAutoRefreshBundles\", \"NoAutoStartBundles\"], "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"quiet-app\"}]}}");
+        final FakeBundle second = context.install("{\"featuresRequirementsVersion\": \"1.0\", "
+                + "\"options\": [\"NoAutoRefreshBundles\"], "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"quiet-lib\"}]}}");
+        awaitState(first, BundleState.Active);
+        awaitState(second, BundleState.Active);
+        assertEquals(1, karaf.getDeployments());
+        assertEquals(EnumSet.of(FeaturesService.Option.NoAutoRefreshBundles), karaf.getLastOptions());
+    }
+
+    @Test
+    public void optionsOnlyEditPersisted() throws Exception {
+        start(new DeployerConfig());
+        final FakeBundle bundle = context.install(descriptor("tuned"));
+        awaitState(bundle, BundleState.Active);
+        context.update(bundle, "{\"featuresRequirementsVersion\": \"1.0\", \"options\": [\"NoAutoStartBundles\"], "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"tuned\"}]}}");
+        final FakeBundle marker = context.install(descriptor("tuned-marker"));
+        awaitState(marker, BundleState.Active);
+        listener.stop();
+        listener = null;
+        try (StateStore store = new StateStore(context.context().getDataFile(""))) {
+            store.open();
+            assertEquals(EnumSet.of(FeaturesService.Option.NoAutoStartBundles),
+                    store.get(bundle.getBundleId()).getOptions());
+        }
+    }
+
+    @Test
+    public void unsavedDeploymentNotActive() throws Exception {
+        context = new FakeBundleContext(folder.newFolder());
+        final TornFileChannel[] journal = new TornFileChannel[1];
+        listener = new FeatureDeploymentListener(karaf.service(), context.context(), new DeployerConfig(),
+                channel -> journal[0] = new TornFileChannel(channel));
+        listener.start();
+        context.awaitListed();
+        final FakeBundle saved = context.install(descriptor("saved"));
+        awaitState(saved, BundleState.Active);
+        journal[0].tearNextWrite = true;
+        final FakeBundle unsaved = context.install(descriptor("unsaved"));
+        awaitState(unsaved, BundleState.Failure);
+        assertThat(listener.getDiag(unsaved.bundle()), containsString("Can't save state"));
+        // Stored state is still missing, so the next event deploys it again
+        context.update(unsaved, descriptor("unsaved"));
+        awaitState(unsaved, BundleState.Active);
+        listener.stop();
+        listener = null;
+        try (StateStore store = new StateStore(context.context().getDataFile(""))) {
+            store.open();
+            assertEquals(FeaturesDescriptor.read(new StringReader(descriptor("unsaved"))),
+                    store.get(unsaved.getBundleId()));
+        }
+    }
+
+    @Test
+    public void pendingEventsOfBundleMerged() throws Exception {
+        start(new DeployerConfig().setBatchWindow(200));
+        final FakeBundle bundle = context.install(descriptor("churn-1"));
+        context.update(bundle, descriptor("churn-2"));
+        context.update(bundle, descriptor("churn-3"));
+        context.uninstall(bundle);
+        final FakeBundle marker = context.install(descriptor("churn-marker"));
+        awaitState(marker, BundleState.Active);
+        assertEquals(3, listener.getMetrics().getMerged());
+        assertEquals(1, karaf.getDeployments());
+        assertFalse(karaf.isRequired(REGION, "churn-3"));
+    }
+
+    @Test
+    public void warmStartAppliesMatchingSnapshot() throws Exception {
+        final File repository = folder.newFile("warm-features.xml");
+        Files.write(repository.toPath(), "<features name=\"warm\"/>".getBytes(StandardCharsets.UTF_8));
+        final String warmDescriptor = "{\"featuresRequirementsVersion\": \"1.0\", \"repositories\": [\"warm\"], "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"warm-app\"}]}}";
+        final File snapshot = new File(folder.getRoot(), "snapshot.json");
+        karaf.addRepositoryName("warm", repository.toURI());
+        start(new DeployerConfig());
+        awaitState(context.install(warmDescriptor), BundleState.Active);
+        listener.exportSnapshot(snapshot);
+        listener.stop();
+
+        // New node does not know repository name, snapshot does
+        final FakeFeaturesService newKaraf = new FakeFeaturesService();
+        context = new FakeBundleContext(folder.newFolder());
+        final FakeBundle bundle = context.install(warmDescriptor);
+        listener = new FeatureDeploymentListener(newKaraf.service(), context.context(),
+                new DeployerConfig().setWarmStartSnapshot(snapshot.getPath()));
+        listener.start();
+        awaitState(bundle, BundleState.Active);
+        assertEquals(1, newKaraf.getDeployments());
+        assertTrue(newKaraf.isRequired(REGION, "warm-app"));
+        assertEquals(repository.toURI(), newKaraf.service().listRequiredRepositories()[0].getURI());
+    }
+
+    @Test
+    public void validationRejectsUnknownFeature() throws Exception {
+        final File repository = folder.newFile("catalog.xml");
+        Files.write(repository.toPath(), "<features name=\"catalog\"/>".getBytes(StandardCharsets.UTF_8));
+        karaf.addFeature(repository.toURI(), "ingress", "1.2.0");
+        // Repository is new to Karaf, so its features are known only once prefetched
+        start(new DeployerConfig().setValidateRequirements(true).setPreflight(true).setBatchWindow(200)
+                .setPrefetchThreads(4));
+        final FakeBundle good = context.install(descriptor("ingress", repository.toURI()));
+        final FakeBundle typo = context.install(descriptor("ingres", repository.toURI()));
+        awaitState(good, BundleState.Active);
+        assertEquals(BundleState.Failure, listener.getState(typo.bundle()));
+        assertThat(listener.getDiag(typo.bundle()),
+                containsString("no feature named 'ingres', did you mean [ingress]"));
+        assertEquals(1, karaf.getSimulations());
+        assertEquals(1, karaf.getDeployments());
+    }
+
+    /**
+     * Starts listener, with reconcile on start returns once it listed bundles, so bundles installed later are
+     * deployed by their events.
+     */
+    private void start(final DeployerConfig config) throws Exception {
+        context = new FakeBundleContext(folder.newFolder());
+        listener = new FeatureDeploymentListener(karaf.service(), context.context(), config);
+        listener.start();
+        if (config.isReconcileOnStart()) {
+            context.awaitListed();
+        }
+    }
+
+    private void awaitState(final FakeBundle bundle, final BundleState expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (listener.getState(bundle.bundle()) != expected) {
+            assertTrue(bundle + " not " + expected + " but " + listener.getState(bundle.bundle()),
+                    System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static String descriptor(final String feature, final URI repository) {
+        return "{\"featuresRequirementsVersion\": \"1.0\", \"repositories\": [\"" + repository + "\"], "
+                + "\"features\": {\"" + REGION + "\": [{\"name\": \"" + feature + "\"}]}}";
+    }
+
+    static String descriptor(final String feature) {
+        return "{\"featuresRequirementsVersion\": \"1.0\", \"features\": {\"" + REGION + "\": [{\"name\": \""
+                + feature + "\"}]}}";
+    }
+}
@@ -0,0 +1,60 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.felix.utils.version.VersionRange;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class FeatureRequirementTest {
+    @Test
+    public void parseInterned() {
+        final FeatureRequirement requirement = FeatureRequirement.parse("feature:camel-spring/[2.18.5,2.18.5]");
+        assertEquals("camel-spring", requirement.getName());
+        assertEquals(new VersionRange("[2.18.5,2.18.5]"), requirement.getVersion());
+        assertSame(requirement, FeatureRequirement.of("camel-spring", new VersionRange("2.18.5", true)));
+        assertEquals("feature:camel-spring/[2.18.5,2.18.5]", requirement.toSpec());
+        assertNull(FeatureRequirement.parse("bundle:mvn:org.example/example/1.0"));
+    }
+
+    @Test
+    public void unreferencedRequirementReleased() throws InterruptedException {
+        final WeakReference<FeatureRequirement> released =
+                new WeakReference<>(FeatureRequirement.parse("feature:released/[1.0,2.0)"));
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (released.get() != null) {
+            assertTrue("Interned requirement is not released", System.nanoTime() < deadline);
+            System.gc();
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void karafRequirementsKeepOtherKinds() {
+        final Map<String, Set<String>> karaf = new HashMap<>();
+        karaf.put("root", new LinkedHashSet<>(Arrays.asList("feature:shell/0", "bundle:mvn:org.example/example/1.0")));
+        final KarafRequirements requirements = KarafRequirements.of(karaf);
+        assertEquals(KarafRequirements.of(karaf), requirements);
+
+        final FeatureRequirement shell = FeatureRequirement.parse("feature:shell/0");
+        assertFalse(requirements.addAll("root", Collections.singleton(shell)));
+        assertTrue(requirements.addAll("root/app", Collections.singleton(shell)));
+        assertTrue(requirements.removeAll("root", Collections.singleton(shell)));
+        assertThat(requirements.toKaraf().get("root"), containsInAnyOrder("bundle:mvn:org.example/example/1.0"));
+        assertThat(requirements.toKaraf().get("root/app"), containsInAnyOrder(shell.toSpec()));
+    }
+}
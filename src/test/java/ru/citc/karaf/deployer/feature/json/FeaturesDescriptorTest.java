@@ -1,6 +1,6 @@
 package ru.citc.karaf.deployer.feature.json;
 
-import org.json.simple.JSONObject;
+import org.apache.karaf.features.FeaturesService;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.junit.Test;
@@ -9,64 +9,193 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasKey;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class FeaturesDescriptorTest {
-    private JSONParser parser = new JSONParser();
-
     @Test
-    public void parseFull() throws IOException, ParseException {
-        final FeaturesDescriptor descriptor = FeaturesDescriptor.fromJson(readDescriptor("/full.features.json"));
+    public void parseFull() throws IOException {
+        final FeaturesDescriptor descriptor = readDescriptor("/full.features.json");
         assertNotNull(descriptor);
         assertThat(descriptor.getRepositories(), containsInAnyOrder(
                 "mvn:org.apache.cxf.karaf/apache-cxf/3.3.1/xml/features",
                 "mvn:org.apache.camel.karaf/apache-camel/2.18.5/xml/features",
                 "spring-legacy"));
-        final Map<String, Set<String>> reqs = descriptor.getRequirements();
+        final Map<String, Set<FeatureRequirement>> reqs = descriptor.getRequirements();
         assertNotNull(reqs);
         assertThat(reqs, allOf(hasKey("root"), hasKey("root/camel218")));
-        Set<String> rootFeatures = reqs.get("root");
+        Set<FeatureRequirement> rootFeatures = reqs.get("root");
         assertNotNull(rootFeatures);
         assertThat(rootFeatures, containsInAnyOrder(
-                "feature:transaction/0",
-                "feature:connector/0"));
-        Set<String> camel218Features = reqs.get("root/camel218");
+                FeatureRequirement.parse("feature:transaction/0"),
+                FeatureRequirement.parse("feature:connector/0")));
+        Set<FeatureRequirement> camel218Features = reqs.get("root/camel218");
         assertNotNull(camel218Features);
         assertThat(camel218Features, containsInAnyOrder(
-                "feature:spring-dm/0",
-                "feature:camel-spring-dm/[2.18.5,2.18.5]",
-                "feature:camel-spring/[2.18.5,2.18.5]"));
+                FeatureRequirement.parse("feature:spring-dm/0"),
+                FeatureRequirement.parse("feature:camel-spring-dm/[2.18.5,2.18.5]"),
+                FeatureRequirement.parse("feature:camel-spring/[2.18.5,2.18.5]")));
     }
 
     @Test(expected = IllegalArgumentException.class)
-    public void parseNoVersion() throws IOException, ParseException {
-        FeaturesDescriptor.fromJson((JSONObject) parser.parse(new StringReader("{}")));
+    public void parseNoVersion() throws IOException {
+        FeaturesDescriptor.read(new StringReader("{}"));
     }
 
     @Test(expected = IllegalArgumentException.class)
-    public void parseInvalidVersion() throws IOException, ParseException {
-        FeaturesDescriptor.fromJson((JSONObject) parser.parse(new StringReader("{\"featuresRequirementsVersion\": \"2.0\"}")));
+    public void parseInvalidVersion() throws IOException {
+        FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": \"2.0\"}"));
+    }
+
+    @Test
+    public void priorityRoundTrip() throws IOException {
+        final FeaturesDescriptor descriptor = FeaturesDescriptor.read(new StringReader(
+                "{\"featuresRequirementsVersion\": \"1.0\", \"priority\": -5, "
+                        + "\"features\": {\"root\": [{\"name\": \"a\"}]}}"));
+        assertEquals(-5, descriptor.getPriority());
+        final StringWriter writer = new StringWriter();
+        descriptor.write(writer);
+        final FeaturesDescriptor read = FeaturesDescriptor.read(new StringReader(writer.toString()));
+        assertEquals(descriptor, read);
+        assertEquals(descriptor.fingerprint(), read.fingerprint());
+        assertNotEquals(FeaturesDescriptor.read(new StringReader(
+                "{\"featuresRequirementsVersion\": \"1.0\", \"features\": {\"root\": [{\"name\": \"a\"}]}}"))
+                .fingerprint(), read.fingerprint());
+    }
+
+    @Test(expected = DescriptorSyntaxException.class)
+    public void parseInvalidPriority() throws IOException {
+        FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": \"1.0\", \"priority\": 1.5}"));
+    }
+
+    @Test
+    public void optionsRoundTrip() throws IOException {
+        final FeaturesDescriptor descriptor = FeaturesDescriptor.read(new StringReader(
+                "{\"featuresRequirementsVersion\": \"1.0\", \"options\": [\"NoAutoStartBundles\"]}"));
+        assertEquals(EnumSet.of(FeaturesService.Option.NoAutoStartBundles), descriptor.getOptions());
+        final StringWriter writer = new StringWriter();
+        descriptor.write(writer);
+        assertEquals(descriptor, FeaturesDescriptor.read(new StringReader(writer.toString())));
+        assertNotEquals(FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": \"1.0\"}"))
+                .fingerprint(), descriptor.fingerprint());
+    }
+
+    @Test(expected = DescriptorSyntaxException.class)
+    public void parseUnsupportedOption() throws IOException {
+        FeaturesDescriptor.read(new StringReader(
+                "{\"featuresRequirementsVersion\": \"1.0\", \"options\": [\"Simulate\"]}"));
     }
 
     @Test
     public void parseSerializeToJson() throws IOException, ParseException {
-        final JSONObject origJson = readDescriptor("/full.features.json");
-        final FeaturesDescriptor orig = FeaturesDescriptor.fromJson(origJson);
-        assertEquals(origJson, orig.toJson());
+        final StringWriter writer = new StringWriter();
+        readDescriptor("/full.features.json").write(writer);
+        final JSONParser parser = new JSONParser();
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/full.features.json"),
+                StandardCharsets.UTF_8)) {
+            assertEquals(parser.parse(reader), parser.parse(writer.toString()));
+        }
+    }
+
+    @Test
+    public void streamRoundTrip() throws IOException {
+        final FeaturesDescriptor orig;
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/full.features.json"),
+                StandardCharsets.UTF_8)) {
+            orig = FeaturesDescriptor.read(reader);
+        }
+        final StringWriter writer = new StringWriter();
+        orig.write(writer);
+        assertEquals(orig, FeaturesDescriptor.read(new StringReader(writer.toString())));
+    }
+
+    @Test
+    public void skipUnknownFields() throws IOException {
+        final FeaturesDescriptor descriptor = FeaturesDescriptor.read(new StringReader("{\"comment\": {\"a\": [1, "
+                + "true, null, \"x\\\"y\"]}, \"featuresRequirementsVersion\": 1.0, \"features\": {\"root\": "
+                + "[{\"name\": \"shell\", \"description\": \"Karaf shell\"}]}}"));
+        assertThat(descriptor.getRequirements().get("root"), containsInAnyOrder(
+                FeatureRequirement.parse("feature:shell/0")));
+    }
+
+    @Test
+    public void syntaxErrorLocation() throws IOException {
+        try {
+            FeaturesDescriptor.read(new StringReader("{\n  \"featuresRequirementsVersion\": \"1.0\",\n"
+                    + "  \"repositories\": \"mvn:org.example/features\"\n}"));
+            fail("Invalid repositories type not detected");
+        } catch (DescriptorSyntaxException e) {
+            assertEquals(3, e.getLine());
+            assertEquals(20, e.getColumn());
+        }
+        try {
+            FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": \"1.0\"\n\"features\": {}}"));
+            fail("Missing comma not detected");
+        } catch (DescriptorSyntaxException e) {
+            assertEquals(2, e.getLine());
+        }
+    }
+
+    @Test
+    public void ensureSatisfied() throws IOException {
+        final FeaturesDescriptor descriptor = readDescriptor("/full.features.json");
+        final Map<String, Set<String>> actual = new HashMap<>();
+        actual.put("root", new HashSet<>(Arrays.asList(
+                "feature:transaction/[1.0,2.0)", "feature:connector/0", "feature:shell/0")));
+        actual.put("root/camel218", new HashSet<>(Arrays.asList(
+                "feature:spring-dm/0", "feature:camel-spring-dm/[2.18,2.19)", "feature:camel-spring/2.18.5")));
+        descriptor.ensureSatisfied(actual);
+    }
+
+    @Test
+    public void ensureSatisfiedMissing() throws IOException {
+        final FeaturesDescriptor descriptor = readDescriptor("/full.features.json");
+        final Map<String, Set<String>> actual = new HashMap<>();
+        actual.put("root", new HashSet<>(Arrays.asList("feature:transaction/0", "feature:connector/0")));
+        actual.put("root/camel218", new HashSet<>(Arrays.asList(
+                "feature:spring-dm/0", "feature:camel-spring-dm/[2.19,2.20)", "bundle:some")));
+        try {
+            descriptor.ensureSatisfied(actual);
+            fail("Unsatisfied requirements not detected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), allOf(containsString("feature:camel-spring-dm/[2.18.5,2.18.5]"),
+                    containsString("feature:camel-spring/[2.18.5,2.18.5]")));
+        }
+    }
+
+    @Test
+    public void fingerprintIgnoresOrder() throws IOException {
+        final FeaturesDescriptor first = FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": "
+                + "\"1.0\", \"repositories\": [\"a\", \"b\"], \"features\": {\"root\": [{\"name\": \"x\"}, "
+                + "{\"name\": \"y\", \"version\": \"1.0\"}]}}"));
+        final FeaturesDescriptor second = FeaturesDescriptor.read(new StringReader("{\"features\": {\"root\": "
+                + "[{\"version\": \"1.0\", \"name\": \"y\"}, {\"name\": \"x\"}]}, \"repositories\": [\"b\", \"a\"], "
+                + "\"featuresRequirementsVersion\": \"1.0\"}"));
+        final FeaturesDescriptor other = FeaturesDescriptor.read(new StringReader("{\"featuresRequirementsVersion\": "
+                + "\"1.0\", \"repositories\": [\"a\", \"b\"], \"features\": {\"root\": [{\"name\": \"x\"}]}}"));
+        assertEquals(first.fingerprint(), second.fingerprint());
+        assertNotEquals(first.fingerprint(), other.fingerprint());
     }
 
-    private JSONObject readDescriptor(final String resourcePath) throws IOException, ParseException {
+    private FeaturesDescriptor readDescriptor(final String resourcePath) throws IOException {
         try (Reader reader = new InputStreamReader(getClass().getResourceAsStream(resourcePath), StandardCharsets.UTF_8)) {
-            return (JSONObject) parser.parse(reader);
+            return FeaturesDescriptor.read(reader);
         }
     }
 }
\ No newline at end of file
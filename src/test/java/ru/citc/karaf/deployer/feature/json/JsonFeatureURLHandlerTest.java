@@ -0,0 +1,68 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.util.StreamUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class JsonFeatureURLHandlerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cachedBundleIsSameAsStreamed() throws Exception {
+        final File source = folder.newFile("app-1.0.0.json");
+        Files.write(source.toPath(), "{\"repositories\":[]}".getBytes(StandardCharsets.UTF_8));
+        final byte[] cached = read(source, new WrapperBundleCache(1024 * 1024));
+        assertArrayEquals(cached, read(source, new WrapperBundleCache(0)));
+        assertThat(descriptor(cached), equalTo("{\"repositories\":[]}"));
+    }
+
+    @Test
+    public void changedSourceRegenerated() throws Exception {
+        final File source = folder.newFile("app-1.0.0.json");
+        final WrapperBundleCache cache = new WrapperBundleCache(1024 * 1024);
+        Files.write(source.toPath(), "{}".getBytes(StandardCharsets.UTF_8));
+        read(source, cache);
+        Files.write(source.toPath(), "{\"features\":[]}".getBytes(StandardCharsets.UTF_8));
+        assertThat(descriptor(read(source, cache)), equalTo("{\"features\":[]}"));
+    }
+
+    private static byte[] read(final File source, final WrapperBundleCache cache) throws Exception {
+        final JsonFeatureURLHandler handler = new JsonFeatureURLHandler(cache);
+        final URL url = new URL(JsonFeatureURLHandler.PREFIX, null, -1, source.toURI().toString(), handler);
+        try (InputStream is = new JsonFeatureURLHandler.Connection(url, cache).getInputStream()) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            StreamUtils.copy(is, os);
+            return os.toByteArray();
+        }
+    }
+
+    private static String descriptor(final byte[] bundle) throws Exception {
+        try (JarInputStream jar = new JarInputStream(new ByteArrayInputStream(bundle))) {
+            JarEntry entry;
+            while ((entry = jar.getNextJarEntry()) != null) {
+                if (entry.getName().equals(JsonFeatureURLHandler.JSON_FEATURE_DESCRIPTOR_PATH)) {
+                    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    StreamUtils.copy(jar, os);
+                    return new String(os.toByteArray(), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new AssertionError("No descriptor in bundle");
+    }
+}
@@ -0,0 +1,36 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OwnershipIndexTest {
+    private static final URI SPRING_1 = URI.create("mvn:org.example/spring/1.0/xml/features");
+    private static final URI SPRING_2 = URI.create("mvn:org.example/spring/2.0/xml/features");
+
+    @Test
+    public void releasesRepositoryResolvedOnApply() throws IOException {
+        final FakeFeaturesService karaf = new FakeFeaturesService().addRepositoryName("spring", SPRING_1);
+        final RepositoryResolver resolver = new RepositoryResolver(karaf.service(), 60_000L);
+        final OwnershipIndex ownership = new OwnershipIndex(resolver);
+        final FeaturesDescriptor descriptor = FeaturesDescriptor.read(new StringReader(
+                "{\"featuresRequirementsVersion\": \"1.0\", \"repositories\": [\"spring\"]}"));
+        ownership.apply(1L, DescriptorDelta.of(null, descriptor));
+        assertTrue(ownership.isOwnedOutside(SPRING_1, Collections.emptySet()));
+
+        // Name resolves elsewhere now, removal still releases what was applied
+        karaf.addRepositoryName("spring", SPRING_2);
+        resolver.invalidate();
+        assertEquals(SPRING_1, ownership.repository(1L, "spring"));
+        ownership.apply(1L, DescriptorDelta.of(descriptor, null));
+        assertFalse(ownership.isOwnedOutside(SPRING_1, Collections.emptySet()));
+        assertFalse(ownership.isOwnedOutside(SPRING_2, Collections.emptySet()));
+    }
+}
@@ -0,0 +1,51 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.apache.karaf.features.FeaturesService;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RepositoryResolverTest {
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    @Test
+    public void cachesNamesUntilInvalidated() {
+        final RepositoryResolver resolver = new RepositoryResolver(featuresService(), 60_000L);
+        assertEquals(URI.create("mvn:org.example/spring/1.0/xml/features"), resolver.resolve("spring"));
+        assertEquals(URI.create("mvn:org.example/spring/1.0/xml/features"), resolver.resolve("spring"));
+        assertEquals(URI.create("mvn:org.example/other/1.0/xml/features"),
+                resolver.resolve("mvn:org.example/other/1.0/xml/features"));
+        assertEquals(1, lookups.get());
+        resolver.invalidate();
+        resolver.resolve("spring");
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void negativeEntriesExpire() {
+        final RepositoryResolver cached = new RepositoryResolver(featuresService(), 60_000L);
+        assertNull(cached.resolve("unknown"));
+        assertNull(cached.resolve("unknown"));
+        assertEquals(1, lookups.get());
+        final RepositoryResolver expiring = new RepositoryResolver(featuresService(), 0L);
+        assertNull(expiring.resolve("unknown"));
+        assertNull(expiring.resolve("unknown"));
+        assertEquals(3, lookups.get());
+    }
+
+    private FeaturesService featuresService() {
+        return (FeaturesService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{FeaturesService.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("getRepositoryUriFor")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    lookups.incrementAndGet();
+                    return "spring".equals(args[0]) ? URI.create("mvn:org.example/spring/1.0/xml/features") : null;
+                });
+    }
+}
@@ -0,0 +1,214 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StateStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commitAndReopen() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        try (StateStore store = open()) {
+            store.commit(Collections.singletonMap(5L, descriptor));
+            store.commit(Collections.singletonMap(7L, descriptor));
+            store.commit(Collections.singletonMap(5L, null));
+        }
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), contains(7L));
+            assertEquals(descriptor, store.get(7L));
+            assertNull(store.get(5L));
+        }
+    }
+
+    @Test
+    public void tornRecordDropped() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        try (StateStore store = open()) {
+            store.commit(Collections.singletonMap(5L, descriptor));
+        }
+        final File journal = new File(folder.getRoot(), StateStore.JOURNAL_FILE);
+        Files.write(journal.toPath(), "1234abcd {\"states\":{\"7\":".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), contains(5L));
+            store.commit(Collections.singletonMap(8L, descriptor));
+        }
+        try (StateStore store = open()) {
+            assertEquals(2, store.bundleIds().size());
+            assertEquals(descriptor, store.get(8L));
+        }
+    }
+
+    @Test
+    public void failedWriteTruncated() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        final TornFileChannel[] channel = new TornFileChannel[1];
+        try (StateStore store = open(delegate -> channel[0] = new TornFileChannel(delegate))) {
+            store.commit(Collections.singletonMap(5L, descriptor));
+            channel[0].tearNextWrite = true;
+            assertCommitFails(store, 7L, descriptor);
+            store.commit(Collections.singletonMap(8L, descriptor));
+        }
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), containsInAnyOrder(5L, 8L));
+        }
+    }
+
+    @Test
+    public void journalRewrittenWhenTruncateFails() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        final TornFileChannel[] channel = new TornFileChannel[1];
+        try (StateStore store = open(delegate -> channel[0] = new TornFileChannel(delegate))) {
+            store.commit(Collections.singletonMap(5L, descriptor));
+            channel[0].tearNextWrite = true;
+            channel[0].failTruncate = true;
+            assertCommitFails(store, 7L, descriptor);
+            store.commit(Collections.singletonMap(8L, descriptor));
+        }
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), containsInAnyOrder(5L, 8L));
+        }
+    }
+
+    @Test
+    public void compaction() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        try (StateStore store = open()) {
+            for (int i = 0; i < 200; i++) {
+                final Map<Long, FeaturesDescriptor> changes = new HashMap<>();
+                changes.put((long) i, descriptor);
+                changes.put((long) i - 1, null);
+                store.commit(changes);
+            }
+        }
+        final File journal = new File(folder.getRoot(), StateStore.JOURNAL_FILE);
+        assertTrue(Files.readAllLines(journal.toPath()).size() < 100);
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), contains(199L));
+        }
+    }
+
+    @Test
+    public void migrateLegacyStateFiles() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        final File legacyFile = new File(folder.getRoot(), "bundle_42.features.json");
+        writeDescriptor(legacyFile, descriptor);
+        try (StateStore store = open()) {
+            assertEquals(descriptor, store.get(42L));
+        }
+        assertFalse(legacyFile.exists());
+        try (StateStore store = open()) {
+            assertEquals(descriptor, store.get(42L));
+        }
+    }
+
+    @Test
+    public void unreadableLegacyStateFileFailsOpen() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        final File legacyFile = new File(folder.getRoot(), "bundle_42.features.json");
+        writeDescriptor(legacyFile, descriptor);
+        // Directory can't be read as file, whatever the permissions are
+        final File unreadable = folder.newFolder("bundle_43.features.json");
+        try (StateStore store = new StateStore(folder.getRoot())) {
+            store.open();
+            fail("Opened with unreadable state file");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString(unreadable.getName()));
+        }
+        assertFalse(new File(folder.getRoot(), StateStore.JOURNAL_FILE).exists());
+        assertTrue(legacyFile.exists());
+        // Retried on next open
+        Files.delete(unreadable.toPath());
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), contains(42L));
+        }
+    }
+
+    @Test
+    public void failedCompactionRetried() throws Exception {
+        final FeaturesDescriptor descriptor = readDescriptor();
+        // Directory in place of temporary journal fails its rewrite
+        final File tmp = folder.newFolder(StateStore.JOURNAL_FILE + ".tmp");
+        try (StateStore store = open()) {
+            // The last one exceeds compaction threshold of 64 records
+            for (int i = 0; i < 65; i++) {
+                store.commit(Collections.singletonMap((long) i % 2, descriptor));
+            }
+            Files.delete(tmp.toPath());
+            store.commit(Collections.singletonMap(2L, descriptor));
+        }
+        final File journal = new File(folder.getRoot(), StateStore.JOURNAL_FILE);
+        assertEquals(2, Files.readAllLines(journal.toPath()).size());
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), containsInAnyOrder(0L, 1L, 2L));
+        }
+    }
+
+    @Test
+    public void emptyStore() throws Exception {
+        try (StateStore store = open()) {
+            assertThat(store.bundleIds(), empty());
+        }
+    }
+
+    private StateStore open() throws Exception {
+        return open(UnaryOperator.identity());
+    }
+
+    private StateStore open(final UnaryOperator<FileChannel> channels) throws Exception {
+        final StateStore store = new StateStore(folder.getRoot(), channels);
+        store.open();
+        return store;
+    }
+
+    private static void assertCommitFails(final StateStore store, final long bundleId,
+                                          final FeaturesDescriptor descriptor) {
+        try {
+            store.commit(Collections.singletonMap(bundleId, descriptor));
+            fail("Commit of torn record succeeded");
+        } catch (IOException e) {
+            assertEquals("Torn write", e.getMessage());
+        }
+    }
+
+    private FeaturesDescriptor readDescriptor() throws Exception {
+        try (Reader reader = new InputStreamReader(getClass().getResourceAsStream("/full.features.json"),
+                StandardCharsets.UTF_8)) {
+            return FeaturesDescriptor.read(reader);
+        }
+    }
+
+    private static void writeDescriptor(final File file, final FeaturesDescriptor descriptor) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            descriptor.write(writer);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.citc.karaf.deployer.feature.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes half of the next record and fails, as a full disk does.
+ */
+final class TornFileChannel extends FileChannel {
+    private final FileChannel delegate;
+    volatile boolean tearNextWrite;
+    volatile boolean failTruncate;
+
+    TornFileChannel(final FileChannel delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!tearNextWrite) {
+            return delegate.write(src);
+        }
+        tearNextWrite = false;
+        final ByteBuffer half = src.duplicate();
+        half.limit(src.position() + src.remaining() / 2);
+        delegate.write(half);
+        throw new IOException("Torn write");
+    }
+
+    @Override
+    public FileChannel truncate(final long size) throws IOException {
+        if (failTruncate) {
+            throw new IOException("Truncate failed");
+        }
+        delegate.truncate(size);
+        return this;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        return delegate.read(dst);
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+        return delegate.read(dsts, offset, length);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        return delegate.write(srcs, offset, length);
+    }
+
+    @Override
+    public long position() throws IOException {
+        return delegate.position();
+    }
+
+    @Override
+    public FileChannel position(final long newPosition) throws IOException {
+        delegate.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return delegate.size();
+    }
+
+    @Override
+    public void force(final boolean metaData) throws IOException {
+        delegate.force(metaData);
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final WritableByteChannel target)
+            throws IOException {
+        return delegate.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(final ReadableByteChannel src, final long position, final long count)
+            throws IOException {
+        return delegate.transferFrom(src, position, count);
+    }
+
+    @Override
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        return delegate.read(dst, position);
+    }
+
+    @Override
+    public int write(final ByteBuffer src, final long position) throws IOException {
+        return delegate.write(src, position);
+    }
+
+    @Override
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        return delegate.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+        return delegate.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+        return delegate.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        delegate.close();
+    }
+}